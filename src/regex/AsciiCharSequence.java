@@ -0,0 +1,67 @@
+package regex;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only {@code CharSequence} view of a {@code ByteBuffer} in which every byte represents a single character. This
+ * allows (memory mapped) bytes to be matched as characters without decoding or copying them.
+ */
+public class AsciiCharSequence implements CharSequence {
+
+    /**
+     * The bytes that are viewed as characters. Its position and limit are not used, all indices are absolute.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The index in the buffer of the first character of this sequence.
+     */
+    private final int offset;
+
+    /**
+     * The number of characters in this sequence.
+     */
+    private final int length;
+
+    /**
+     * Creates a view of all bytes between the position and limit of the given buffer.
+     *
+     * @param buffer The bytes that should be viewed as characters.
+     */
+    public AsciiCharSequence(ByteBuffer buffer) {
+        this(buffer, buffer.position(), buffer.remaining());
+    }
+
+    private AsciiCharSequence(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return this.length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= this.length)
+            throw new IndexOutOfBoundsException("Index " + index + " is not within [0, " + this.length + ")");
+        return (char) (this.buffer.get(this.offset + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > this.length || start > end)
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") is not within [0, " + this.length + ")");
+        return new AsciiCharSequence(this.buffer, this.offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[this.length];
+        for (int i = 0; i < this.length; ++i)
+            chars[i] = (char) (this.buffer.get(this.offset + i) & 0xFF);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,165 @@
+package regex;
+
+import dk.brics.automaton.RegExp;
+import dk.brics.automaton.RunAutomaton;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide registry of compiled automata. Compiling a regular expression into a {@code RunAutomaton} requires
+ * parsing, determinization and minimization, which is far more expensive than running the result. The registry makes
+ * sure this happens at most once per key for the lifetime of the JVM, after which every caller shares the same
+ * (immutable) result.
+ * <p>
+ * Before compiling, the registry looks for a precompiled version on the classpath under {@code automata/<hash>.automaton},
+ * where hash is the SHA-1 of the key. Such files can be generated at build time by running {@code main} with the
+ * output classpath directory as argument.
+ * </p>
+ */
+public final class AutomatonRegistry {
+
+    /**
+     * Directory on the classpath in which precompiled automata are stored.
+     */
+    private static final String RESOURCE_DIRECTORY = "automata";
+
+    /**
+     * Extension of the files containing precompiled automata.
+     */
+    private static final String RESOURCE_EXTENSION = ".automaton";
+
+    /**
+     * All entries that have been requested so far, by key.
+     */
+    private static final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private AutomatonRegistry() {
+    }
+
+    /**
+     * Obtain the compiled automaton for the given regular expression. The expression is compiled at most once, all
+     * subsequent calls return the same instance.
+     *
+     * @param regex The regular expression in {@code dk.brics.automaton.RegExp} syntax.
+     * @return The shared {@code RunAutomaton} for the given expression.
+     */
+    public static RunAutomaton get(String regex) {
+        return get(regex, RunAutomaton.class, () -> new RunAutomaton(new RegExp(regex).toAutomaton()));
+    }
+
+    /**
+     * Obtain the compiled object for the given key. If it isn't registered yet then it is loaded from the classpath
+     * if a precompiled version is available, or compiled using the given compiler otherwise. Concurrent requests for
+     * the same key wait for the first one to finish instead of compiling it again.
+     *
+     * @param key      The key that uniquely identifies the compiled object.
+     * @param type     The type of the compiled object.
+     * @param compiler Compiles the object if it is not available yet.
+     * @return The shared compiled object.
+     */
+    static <T extends Serializable> T get(String key, Class<T> type, Supplier<T> compiler) {
+        return type.cast(entries.computeIfAbsent(key, Entry::new).get(type, compiler));
+    }
+
+    /**
+     * Store a compiled object such that it can be loaded by the registry from the classpath instead of being compiled.
+     *
+     * @param classpathRoot The root directory of the classpath in which to store the object.
+     * @param key           The key that uniquely identifies the compiled object.
+     * @param compiled      The compiled object.
+     * @throws IOException When the object could not be written.
+     */
+    static void store(File classpathRoot, String key, Serializable compiled) throws IOException {
+        File directory = new File(classpathRoot, RESOURCE_DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Could not create directory " + directory.getAbsolutePath());
+
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(new File(directory, fileName(key))))) {
+            out.writeObject(compiled);
+        }
+    }
+
+    /**
+     * Load a precompiled object from the classpath.
+     *
+     * @param key  The key that uniquely identifies the compiled object.
+     * @param type The expected type of the compiled object.
+     * @return The loaded object, or {@code null} if no (valid) precompiled version is available.
+     */
+    private static <T> T load(String key, Class<T> type) {
+        InputStream stream = AutomatonRegistry.class.getClassLoader()
+                .getResourceAsStream(RESOURCE_DIRECTORY + "/" + fileName(key));
+        if (stream == null)
+            return null;
+
+        try (ObjectInputStream in = new ObjectInputStream(stream)) {
+            Object loaded = in.readObject();
+            return type.isInstance(loaded) ? type.cast(loaded) : null;
+        } catch (IOException | ClassNotFoundException e) {
+            // A stale or corrupt resource is not fatal, we simply compile it ourselves
+            return null;
+        }
+    }
+
+    /**
+     * Determine the name of the file in which the compiled object for the given key is stored.
+     *
+     * @param key The key that uniquely identifies the compiled object.
+     * @return The hash of the key, followed by the resource extension.
+     */
+    private static String fileName(String key) {
+        return Hashes.sha1(key) + RESOURCE_EXTENSION;
+    }
+
+    /**
+     * Precomputes all automata that are used by this project and stores them in the given classpath directory, such
+     * that they are loaded instead of compiled on startup.
+     *
+     * @param args The first argument is the classpath root to write to, which defaults to the working directory.
+     */
+    public static void main(String[] args) throws IOException {
+        File classpathRoot = new File(args.length > 0 ? args[0] : ".");
+        PicoTokenizer.precompile(classpathRoot);
+        DfaRec.precompile(classpathRoot);
+        System.out.println("Stored precompiled automata in " + new File(classpathRoot, RESOURCE_DIRECTORY).getAbsolutePath());
+    }
+
+    /**
+     * Lazily compiled registry entry. The entry itself is created cheaply, compilation happens on the first call to
+     * {@code get} while other threads requesting the same entry wait for it.
+     */
+    private static class Entry {
+
+        private final String key;
+
+        private volatile Object value;
+
+        private Entry(String key) {
+            this.key = key;
+        }
+
+        private <T> Object get(Class<T> type, Supplier<T> compiler) {
+            Object result = this.value;
+            if (result == null) {
+                synchronized (this) {
+                    result = this.value;
+                    if (result == null) {
+                        result = load(this.key, type);
+                        if (result == null)
+                            result = compiler.get();
+                        this.value = result;
+                    }
+                }
+            }
+            return result;
+        }
+    }
+}
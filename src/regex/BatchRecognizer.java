@@ -0,0 +1,292 @@
+package regex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Recognizes many files as Pico programs in parallel. The files are divided over the threads of a
+ * {@code ForkJoinPool}, such that idle threads steal work from busy ones. All recognizers share the same compiled
+ * token automaton, which is loaded before the work is distributed.
+ */
+public class BatchRecognizer {
+
+    /**
+     * Extension of the files that are recognized when a directory is given.
+     */
+    public static final String EXTENSION = ".pico";
+
+    /**
+     * Size in bytes from which files are memory mapped rather than read. Every mapping stays in place until it is
+     * garbage collected, so mapping each of many small files could exhaust the mappings a process is allowed.
+     */
+    public static final long MAPPED_SIZE = 1 << 20;
+
+    /**
+     * The pool on which the files are recognized.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a batch recognizer that uses the common pool.
+     */
+    public BatchRecognizer() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a batch recognizer that uses the given pool.
+     *
+     * @param pool The pool on which the files are recognized.
+     */
+    public BatchRecognizer(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Recognize all files with the {@code EXTENSION} in the given directory and its subdirectories.
+     *
+     * @param directory The directory to search for files.
+     * @return The results of all files.
+     * @throws IOException When the directory couldn't be searched.
+     */
+    public BatchResult recognize(Path directory) throws IOException {
+        return this.recognize(findFiles(directory));
+    }
+
+    /**
+     * Find all files with the {@code EXTENSION} in the given directory and its subdirectories.
+     *
+     * @param directory The directory to search for files.
+     * @return The files that were found, in lexicographical order.
+     * @throws IOException When the directory couldn't be searched.
+     */
+    public static List<Path> findFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(file -> Files.isRegularFile(file) && file.toString().endsWith(EXTENSION))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Recognize all given files.
+     *
+     * @param files The files to recognize.
+     * @return The results of all files, in the same order as the given files.
+     */
+    public BatchResult recognize(List<Path> files) {
+        PicoTokenizer.preload();
+
+        FileResult[] results = new FileResult[files.size()];
+        long start = System.nanoTime();
+        this.pool.invoke(new RecognizeTask(files, results, 0, results.length));
+        return new BatchResult(Arrays.asList(results), System.nanoTime() - start);
+    }
+
+    /**
+     * Recognize a single file.
+     *
+     * @param file The file to recognize.
+     * @return The result of recognizing the file.
+     */
+    private static FileResult recognizeFile(Path file) {
+        long size = -1;
+        try {
+            size = Files.size(file);
+            PicoRec recognizer = size >= MAPPED_SIZE ? new PicoRec(file)
+                    : new PicoRec(new PicoTokenizer(new AsciiCharSequence(ByteBuffer.wrap(Files.readAllBytes(file)))));
+            PicoRec.Result result = recognizer.check();
+            return new FileResult(file, size, result.isOk() ? null : result.toString());
+        } catch (IOException | RuntimeException e) {
+            return new FileResult(file, size, e.toString());
+        }
+    }
+
+    /**
+     * Recognizes a range of files, splitting it in halves until a single file remains.
+     */
+    private static class RecognizeTask extends RecursiveAction {
+
+        private final List<Path> files;
+
+        private final FileResult[] results;
+
+        private final int from;
+
+        private final int to;
+
+        private RecognizeTask(List<Path> files, FileResult[] results, int from, int to) {
+            this.files = files;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from == 1) {
+                this.results[this.from] = recognizeFile(this.files.get(this.from));
+            } else if (this.to - this.from > 1) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new RecognizeTask(this.files, this.results, this.from, middle),
+                        new RecognizeTask(this.files, this.results, middle, this.to));
+            }
+        }
+    }
+
+    /**
+     * The result of recognizing a single file.
+     */
+    public static class FileResult {
+
+        /**
+         * The file that was recognized.
+         */
+        public final Path file;
+
+        /**
+         * The size of the file in bytes, or -1 if it couldn't be determined.
+         */
+        public final long size;
+
+        /**
+         * The reason the file wasn't recognized, or null if it was recognized.
+         */
+        public final String error;
+
+        private FileResult(Path file, long size, String error) {
+            this.file = file;
+            this.size = size;
+            this.error = error;
+        }
+
+        /**
+         * Indicates whether the file was recognized as a Pico program.
+         *
+         * @return {@code true} if the file is a Pico program, {@code false} otherwise.
+         */
+        public boolean isRecognized() {
+            return this.error == null;
+        }
+
+        @Override
+        public String toString() {
+            return this.file + (this.isRecognized() ? ": recognized" : ": not recognized (" + this.error + ")");
+        }
+    }
+
+    /**
+     * The results of recognizing a batch of files, together with the throughput that was achieved.
+     */
+    public static class BatchResult {
+
+        /**
+         * The results of the individual files.
+         */
+        public final List<FileResult> files;
+
+        /**
+         * The time it took to recognize all files, in nanoseconds.
+         */
+        public final long nanos;
+
+        private BatchResult(List<FileResult> files, long nanos) {
+            this.files = Collections.unmodifiableList(files);
+            this.nanos = nanos;
+        }
+
+        /**
+         * Obtain the number of files that were recognized as Pico programs.
+         *
+         * @return The number of recognized files.
+         */
+        public int recognized() {
+            int recognized = 0;
+            for (FileResult file : this.files)
+                if (file.isRecognized()) ++recognized;
+            return recognized;
+        }
+
+        /**
+         * Obtain the results of the files that were not recognized.
+         *
+         * @return The results of the files that are not Pico programs.
+         */
+        public List<FileResult> failures() {
+            List<FileResult> failures = new ArrayList<>();
+            for (FileResult file : this.files)
+                if (!file.isRecognized()) failures.add(file);
+            return failures;
+        }
+
+        /**
+         * Obtain the total size of all files.
+         *
+         * @return The total number of bytes of all files of which the size is known.
+         */
+        public long bytes() {
+            long bytes = 0;
+            for (FileResult file : this.files)
+                if (file.size > 0) bytes += file.size;
+            return bytes;
+        }
+
+        /**
+         * Obtain the number of files that were recognized per second.
+         *
+         * @return The file throughput.
+         */
+        public double filesPerSecond() {
+            return this.nanos == 0 ? 0 : this.files.size() * 1e9 / this.nanos;
+        }
+
+        /**
+         * Obtain the number of bytes that were recognized per second.
+         *
+         * @return The byte throughput.
+         */
+        public double bytesPerSecond() {
+            return this.nanos == 0 ? 0 : this.bytes() * 1e9 / this.nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d of %d files recognized in %.3f ms (%.1f files/s, %.1f MB/s)",
+                    this.recognized(), this.files.size(), this.nanos / 1e6, this.filesPerSecond(),
+                    this.bytesPerSecond() / 1e6);
+        }
+    }
+
+    /**
+     * Recognizes all given files and directories, and prints the files that were not recognized followed by the
+     * statistics of the batch.
+     *
+     * @param args The files and directories to recognize, which defaults to the examples directory.
+     */
+    public static void main(String[] args) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String arg : args.length > 0 ? args : new String[]{"examples"}) {
+            Path path = Paths.get(arg);
+            if (Files.isDirectory(path))
+                files.addAll(findFiles(path));
+            else
+                files.add(path);
+        }
+
+        BatchResult result = new BatchRecognizer().recognize(files);
+        for (FileResult failure : result.failures())
+            System.out.println(failure);
+        System.out.println(result);
+    }
+}
@@ -0,0 +1,208 @@
+package regex;
+
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.RunAutomaton;
+import regex.PicoTokenizer.Token;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Recognizer of Pico programs that runs a single deterministic automaton over the token types. Pico isn't regular,
+ * because expressions can be nested within parentheses to any depth, but the programs in which parentheses are
+ * nested at most a bounded number of times are. This recognizer compiles those programs into one minimized
+ * {@code RunAutomaton}, such that recognizing a typical program is a linear scan that takes a single transition per
+ * token, without recursion and without creating token objects.
+ * <p>
+ * Whenever the automaton rejects the input, which also happens when the parentheses are nested deeper than the
+ * bound, the input is recognized again by {@code PicoRec}. That decides whether the program is valid after all, and
+ * describes the error if it isn't.
+ * </p>
+ */
+public class DfaRec {
+
+    /**
+     * The maximum depth of nested parentheses that is recognized by the automaton unless specified otherwise.
+     */
+    public static final int DEFAULT_DEPTH = 8;
+
+    /**
+     * The first character of the alphabet of the automaton. Each token type is represented by the character at its
+     * ordinal from here.
+     */
+    private static final char ALPHABET_START = 'A';
+
+    /**
+     * The automaton that accepts all programs within the depth bound.
+     */
+    private final RunAutomaton automaton;
+
+    /**
+     * The tokens that are recognized by the automaton.
+     */
+    private final TokenCursor tokenizer;
+
+    /**
+     * The string that is recognized, or null if a buffer is recognized.
+     */
+    private final String string;
+
+    /**
+     * The tokens that are recognized, or null if a string is recognized.
+     */
+    private final TokenBuffer tokens;
+
+    /**
+     * Creates a new {@code DfaRec} that aims to recognize the given string as a Pico program, using the
+     * {@code DEFAULT_DEPTH}.
+     *
+     * @param string The string that contains the code that should be recognized as a Pico program.
+     */
+    public DfaRec(String string) {
+        this(string, DEFAULT_DEPTH);
+    }
+
+    /**
+     * Creates a new {@code DfaRec} that aims to recognize the given string as a Pico program.
+     *
+     * @param string The string that contains the code that should be recognized as a Pico program.
+     * @param depth  The maximum depth of nested parentheses that is recognized by the automaton.
+     */
+    public DfaRec(String string, int depth) {
+        this.automaton = automaton(depth);
+        this.tokenizer = new PicoTokenizer(string);
+        this.string = string;
+        this.tokens = null;
+    }
+
+    /**
+     * Creates a new {@code DfaRec} that aims to recognize the tokens in the given buffer as a Pico program, using the
+     * {@code DEFAULT_DEPTH}.
+     *
+     * @param tokens The tokens that should be recognized as a Pico program.
+     */
+    public DfaRec(TokenBuffer tokens) {
+        this(tokens, DEFAULT_DEPTH);
+    }
+
+    /**
+     * Creates a new {@code DfaRec} that aims to recognize the tokens in the given buffer as a Pico program.
+     *
+     * @param tokens The tokens that should be recognized as a Pico program.
+     * @param depth  The maximum depth of nested parentheses that is recognized by the automaton.
+     */
+    public DfaRec(TokenBuffer tokens, int depth) {
+        this.automaton = automaton(depth);
+        this.tokenizer = tokens.cursor();
+        this.string = null;
+        this.tokens = tokens;
+    }
+
+    /**
+     * Recognize the earlier defined input as a valid Pico program. Like {@code PicoRec}, tokens after the
+     * {@code "end"} of the program are ignored.
+     *
+     * @return {@code Result.OK} if the input is a valid Pico program, or a result describing the first error
+     * otherwise.
+     */
+    public synchronized PicoRec.Result check() {
+        int state = this.automaton.getInitialState();
+        for (Token.Type type = this.tokenizer.type(); type != null; type = this.tokenizer.type()) {
+            state = this.automaton.step(state, symbol(type));
+            if (state == -1)
+                break;
+            // Every accepted sequence ends with "end", so this is where PicoRec stops as well
+            if (this.automaton.isAccept(state))
+                return PicoRec.Result.OK;
+            this.tokenizer.advance();
+        }
+
+        PicoRec fallback = this.string != null ? new PicoRec(this.string) : new PicoRec(this.tokens);
+        return fallback.check();
+    }
+
+    /**
+     * Obtain the automaton that accepts all programs within the given depth bound. It is compiled (or loaded when
+     * precompiled) only once per depth and then shared by all recognizers.
+     *
+     * @param depth The maximum depth of nested parentheses.
+     * @return The shared automaton.
+     */
+    static RunAutomaton automaton(int depth) {
+        if (depth < 0)
+            throw new IllegalArgumentException("The depth must not be negative");
+        return AutomatonRegistry.get(automatonKey(depth), RunAutomaton.class, () -> compileAutomaton(depth));
+    }
+
+    /**
+     * Compile the automaton over the token types that accepts all programs within the given depth bound, following
+     * these definitions, where the parentheses of {@code EXP(d)} are nested at most d times:
+     * {@code PROGRAM ::= "begin" "declare" (ID ",")* "|" (ID ":=" EXP(depth) ";")* "end"}
+     * {@code EXP(d) ::= UNARY(d) (("+" | "*") UNARY(d))*}
+     * {@code UNARY(d) ::= "-"* (ID | NAT | "(" EXP(d - 1) ")")}
+     *
+     * @param depth The maximum depth of nested parentheses.
+     * @return The compiled automaton.
+     */
+    private static RunAutomaton compileAutomaton(int depth) {
+        Automaton operator = symbols(Token.Type.ADD).union(symbols(Token.Type.MULTIPLY));
+        Automaton expression = null;
+        for (int d = 0; d <= depth; ++d) {
+            Automaton operand = symbols(Token.Type.IDENTIFIER).union(symbols(Token.Type.NATNUMBER));
+            if (expression != null)
+                operand = operand.union(symbols(Token.Type.OPEN).concatenate(expression)
+                        .concatenate(symbols(Token.Type.CLOSE)));
+            Automaton unary = symbols(Token.Type.MINUS).repeat().concatenate(operand);
+            expression = unary.concatenate(operator.concatenate(unary).repeat());
+            expression.minimize();
+        }
+
+        Automaton program = symbols(Token.Type.BEGIN, Token.Type.DECLARE)
+                .concatenate(symbols(Token.Type.IDENTIFIER, Token.Type.DECLARATION_END).repeat())
+                .concatenate(symbols(Token.Type.DECLARATIONS_END))
+                .concatenate(symbols(Token.Type.IDENTIFIER, Token.Type.ASSIGN).concatenate(expression)
+                        .concatenate(symbols(Token.Type.STATEMENT_END)).repeat())
+                .concatenate(symbols(Token.Type.END));
+        program.minimize();
+        return new RunAutomaton(program);
+    }
+
+    /**
+     * Obtain the automaton that accepts exactly the given sequence of token types.
+     */
+    private static Automaton symbols(Token.Type... types) {
+        StringBuilder builder = new StringBuilder(types.length);
+        for (Token.Type type : types)
+            builder.append(symbol(type));
+        return Automaton.makeString(builder.toString());
+    }
+
+    /**
+     * Obtain the character by which the given token type is represented in the alphabet of the automaton.
+     */
+    private static char symbol(Token.Type type) {
+        return (char) (ALPHABET_START + type.ordinal());
+    }
+
+    /**
+     * Determine the key under which the automaton for the given depth is registered. It is derived from the token
+     * types such that a precompiled automaton of a different version of the types is never used.
+     */
+    private static String automatonKey(int depth) {
+        StringBuilder builder = new StringBuilder(DfaRec.class.getName()).append(" depth=").append(depth);
+        for (Token.Type type : PicoTokenizer.TYPES)
+            builder.append(' ').append(type.name());
+        return builder.toString();
+    }
+
+    /**
+     * Stores the automaton for the {@code DEFAULT_DEPTH} in the given classpath directory such that it is loaded
+     * instead of compiled.
+     *
+     * @param classpathRoot The root directory of the classpath in which to store the automaton.
+     * @throws IOException When the automaton could not be written.
+     */
+    static void precompile(File classpathRoot) throws IOException {
+        AutomatonRegistry.store(classpathRoot, automatonKey(DEFAULT_DEPTH), automaton(DEFAULT_DEPTH));
+    }
+}
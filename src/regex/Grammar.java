@@ -0,0 +1,294 @@
+package regex;
+
+import regex.PicoTokenizer.Token;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LL(1) grammar over the Pico tokens, together with the parse table that is generated from it. The grammar is read
+ * from a file in which each line defines a single alternative, using the same {@code ::=} notation as the lexical
+ * definitions read by {@code RegexBuilder}. See {@code examples/pico.grammar}.
+ * <p>
+ * Symbols are encoded as integers. The terminals are the ordinals of {@code Token.Type}, followed by
+ * {@code END_OF_INPUT}. The nonterminals are numbered after that, in the order in which they are defined.
+ * </p>
+ */
+public class Grammar {
+
+    /**
+     * All token types, indexed by their ordinal.
+     */
+    private static final Token.Type[] TYPES = Token.Type.values();
+
+    /**
+     * The terminal that represents the end of the input.
+     */
+    static final int END_OF_INPUT = TYPES.length;
+
+    /**
+     * The number of terminals, including {@code END_OF_INPUT}.
+     */
+    private static final int TERMINALS = TYPES.length + 1;
+
+    /**
+     * The names of the nonterminals, in order of definition.
+     */
+    private final String[] nonterminals;
+
+    /**
+     * The symbols of the right hand side of each production.
+     */
+    private final int[][] productions;
+
+    /**
+     * The nonterminal on the left hand side of each production.
+     */
+    private final int[] heads;
+
+    /**
+     * The production to apply for each nonterminal and terminal, indexed by
+     * {@code (nonterminal - TERMINALS) * TERMINALS + terminal}.
+     */
+    private final int[] table;
+
+    /**
+     * Read the grammar from the given file.
+     *
+     * @param file The file containing the grammar.
+     * @throws IOException              When the file couldn't be read.
+     * @throws IllegalArgumentException When the file doesn't contain a valid LL(1) grammar.
+     */
+    public Grammar(File file) throws IOException {
+        this(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Read the grammar from the given lines.
+     *
+     * @param lines The lines that define the grammar.
+     * @throws IllegalArgumentException When the lines don't define a valid LL(1) grammar.
+     */
+    public Grammar(List<String> lines) {
+        // First sweep: collect all alternatives, such that all nonterminals are known before the symbols are resolved
+        Map<String, Integer> numbering = new LinkedHashMap<>();
+        List<String> heads = new ArrayList<>();
+        List<String> bodies = new ArrayList<>();
+        for (String line : lines) {
+            if (line.trim().length() == 0 || line.startsWith(RegexBuilder.DEFINITION_COMMENT))
+                continue;
+
+            String[] split = line.split(RegexBuilder.DEFINITION_SPLIT, 2);
+            if (split.length != 2)
+                throw new IllegalArgumentException("Line \"" + line + "\" is not a definition");
+
+            String head = split[0].trim();
+            if (!numbering.containsKey(head))
+                numbering.put(head, TERMINALS + numbering.size());
+            heads.add(head);
+            bodies.add(split[1].trim());
+        }
+        if (numbering.isEmpty())
+            throw new IllegalArgumentException("The grammar doesn't define anything");
+
+        // Second sweep: resolve the symbols of all alternatives
+        this.nonterminals = numbering.keySet().toArray(new String[numbering.size()]);
+        this.productions = new int[heads.size()][];
+        this.heads = new int[heads.size()];
+        for (int p = 0; p < this.productions.length; ++p) {
+            this.heads[p] = numbering.get(heads.get(p));
+            String body = bodies.get(p);
+            String[] names = body.length() == 0 ? new String[0] : body.split("\\s+");
+            this.productions[p] = new int[names.length];
+            for (int i = 0; i < names.length; ++i)
+                this.productions[p][i] = resolve(names[i], numbering);
+        }
+
+        this.table = new int[this.nonterminals.length * TERMINALS];
+        Arrays.fill(this.table, -1);
+        this.buildTable();
+    }
+
+    /**
+     * Determine the symbol with the given name.
+     */
+    private static int resolve(String name, Map<String, Integer> nonterminals) {
+        if (name.length() > 2 && name.startsWith("\"") && name.endsWith("\"")) {
+            String representation = name.substring(1, name.length() - 1);
+            for (Token.Type type : TYPES)
+                if (type.isKeyword() && type.represents(representation))
+                    return type.ordinal();
+            throw new IllegalArgumentException("There is no keyword " + name);
+        }
+
+        Integer nonterminal = nonterminals.get(name);
+        if (nonterminal != null)
+            return nonterminal;
+
+        for (Token.Type type : TYPES)
+            if (type.name().equals(name))
+                return type.ordinal();
+        throw new IllegalArgumentException("Symbol " + name + " is neither a token type nor a nonterminal");
+    }
+
+    /**
+     * Compute the FIRST and FOLLOW sets of all nonterminals and fill the parse table with them. The entries that
+     * aren't predicted by any alternative are filled with the first alternative of the nonterminal, such that an
+     * error is only detected when a terminal doesn't match. This doesn't change the language, as no token is consumed
+     * before that happens.
+     *
+     * @throws IllegalArgumentException When the grammar isn't LL(1).
+     */
+    private void buildTable() {
+        int count = this.nonterminals.length;
+        BitSet nullable = new BitSet(count);
+        BitSet[] first = new BitSet[count];
+        BitSet[] follow = new BitSet[count];
+        for (int n = 0; n < count; ++n) {
+            first[n] = new BitSet(TERMINALS);
+            follow[n] = new BitSet(TERMINALS);
+        }
+        follow[0].set(END_OF_INPUT);
+
+        // Iterate until nothing changes anymore
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int p = 0; p < this.productions.length; ++p) {
+                int head = this.heads[p] - TERMINALS;
+                int[] body = this.productions[p];
+
+                BitSet bodyFirst = new BitSet(TERMINALS);
+                boolean bodyNullable = this.first(body, 0, first, nullable, bodyFirst);
+                changed |= addAll(first[head], bodyFirst);
+                if (bodyNullable && !nullable.get(head)) {
+                    nullable.set(head);
+                    changed = true;
+                }
+
+                for (int i = 0; i < body.length; ++i) {
+                    if (body[i] < TERMINALS)
+                        continue;
+
+                    BitSet restFirst = new BitSet(TERMINALS);
+                    if (this.first(body, i + 1, first, nullable, restFirst))
+                        restFirst.or(follow[head]);
+                    changed |= addAll(follow[body[i] - TERMINALS], restFirst);
+                }
+            }
+        }
+
+        for (int p = 0; p < this.productions.length; ++p) {
+            int head = this.heads[p] - TERMINALS;
+            BitSet predict = new BitSet(TERMINALS);
+            if (this.first(this.productions[p], 0, first, nullable, predict))
+                predict.or(follow[head]);
+
+            for (int t = predict.nextSetBit(0); t >= 0; t = predict.nextSetBit(t + 1)) {
+                int index = head * TERMINALS + t;
+                if (this.table[index] != -1)
+                    throw new IllegalArgumentException("The grammar is not LL(1): " + this.nonterminals[head]
+                            + " has multiple alternatives for " + this.name(t));
+                this.table[index] = p;
+            }
+
+        }
+
+        for (int n = 0; n < count; ++n) {
+            // A nonterminal that derives no string at all would be expanded forever
+            if (first[n].isEmpty() && !nullable.get(n))
+                throw new IllegalArgumentException("Nonterminal " + this.nonterminals[n] + " derives no tokens");
+
+            int defaultProduction = -1;
+            for (int p = 0; p < this.productions.length && defaultProduction < 0; ++p)
+                if (this.heads[p] == n + TERMINALS)
+                    defaultProduction = p;
+            for (int t = 0; t < TERMINALS; ++t)
+                if (this.table[n * TERMINALS + t] == -1)
+                    this.table[n * TERMINALS + t] = defaultProduction;
+        }
+    }
+
+    /**
+     * Add the FIRST set of the symbols from the given index onwards to the given set.
+     *
+     * @return Whether these symbols can derive the empty string.
+     */
+    private boolean first(int[] body, int from, BitSet[] first, BitSet nullable, BitSet result) {
+        for (int i = from; i < body.length; ++i) {
+            if (body[i] < TERMINALS) {
+                result.set(body[i]);
+                return false;
+            }
+            result.or(first[body[i] - TERMINALS]);
+            if (!nullable.get(body[i] - TERMINALS))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Add all elements of the source to the target.
+     *
+     * @return Whether the target changed.
+     */
+    private static boolean addAll(BitSet target, BitSet source) {
+        int before = target.cardinality();
+        target.or(source);
+        return target.cardinality() != before;
+    }
+
+    private String name(int symbol) {
+        if (symbol == END_OF_INPUT) return "the end of the input";
+        if (symbol < TERMINALS) return TYPES[symbol].name();
+        return this.nonterminals[symbol - TERMINALS];
+    }
+
+    /**
+     * Obtain the start symbol.
+     *
+     * @return The nonterminal that is defined first.
+     */
+    int start() {
+        return TERMINALS;
+    }
+
+    /**
+     * Indicates whether the given symbol is a terminal.
+     *
+     * @param symbol The symbol to inspect.
+     * @return {@code true} if the symbol is a terminal, {@code false} if it is a nonterminal.
+     */
+    static boolean isTerminal(int symbol) {
+        return symbol < TERMINALS;
+    }
+
+    /**
+     * Determine the production to apply for the given nonterminal when the given terminal is next.
+     *
+     * @param nonterminal The nonterminal to expand.
+     * @param terminal    The next terminal.
+     * @return The index of the production.
+     */
+    int predict(int nonterminal, int terminal) {
+        return this.table[(nonterminal - TERMINALS) * TERMINALS + terminal];
+    }
+
+    /**
+     * Obtain the symbols of the right hand side of a production.
+     *
+     * @param production The index of the production.
+     * @return The symbols of the production, which must not be modified.
+     */
+    int[] production(int production) {
+        return this.productions[production];
+    }
+}
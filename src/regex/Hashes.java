@@ -0,0 +1,33 @@
+package regex;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content hashes that are used as keys of compiled objects, such as precompiled automata, cache files of specs and
+ * generated classes of programs.
+ */
+final class Hashes {
+
+    private Hashes() {
+    }
+
+    /**
+     * Determine the hash of the given key.
+     *
+     * @param key The key to hash.
+     * @return The SHA-1 of the UTF-8 encoding of the key in hexadecimal notation.
+     */
+    static String sha1(String key) {
+        try {
+            StringBuilder builder = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8)))
+                builder.append(String.format("%02x", b));
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+}
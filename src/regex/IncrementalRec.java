@@ -0,0 +1,313 @@
+package regex;
+
+import regex.PicoTokenizer.Token;
+
+import java.util.Arrays;
+
+/**
+ * Recognizes a Pico program that is edited, such as the content of an editor, without tokenizing and recognizing the
+ * whole program again after every edit. The tokens are kept in a {@code TokenBuffer} of which only the changed region
+ * is tokenized again, and the result of every statement is remembered such that only the statements of which tokens
+ * changed are recognized again.
+ * <p>
+ * This relies on the fact that {@code PicoRec} recognizes the statements one after another, each of which ends at the
+ * first {@code ";"} after its start: the program is divided into the header, which ends at the first {@code "|"}, and
+ * segments that end after a {@code ";"}. The program is valid if the header is valid, and the first segment that
+ * isn't a valid statement starts with {@code "end"}. Edits of the header cause the whole program to be recognized
+ * again, which only takes long if the header is invalid.
+ * </p>
+ * <p>
+ * The content, the tokens and the segments are all kept in gap buffers, and the segments that aren't valid statements
+ * are kept apart, such that an edit takes time proportional to what it changes and its distance to the previous
+ * edit, rather than to the size of the program.
+ * </p>
+ */
+public class IncrementalRec {
+
+    /**
+     * The current content.
+     */
+    private final Text text;
+
+    /**
+     * The tokens of the current content.
+     */
+    private final TokenBuffer tokens;
+
+    /**
+     * Whether the header is valid. If not, the segments are not determined.
+     */
+    private boolean headerValid;
+
+    /**
+     * The index of the token at which each segment starts.
+     */
+    private PositionBuffer segments;
+
+    /**
+     * The index of the token at which each segment starts that isn't a valid statement. Recognizing the program stops
+     * at the first of these, which is either invalid or starts with {@code "end"}.
+     */
+    private PositionBuffer stops;
+
+    /**
+     * Creates a recognizer of the given initial content.
+     *
+     * @param text The initial content.
+     */
+    public IncrementalRec(CharSequence text) {
+        this.text = new Text(text);
+        this.tokens = TokenBuffer.tokenize(this.text);
+        this.recognizeAll();
+    }
+
+    /**
+     * Replace a part of the content and recognize the result.
+     *
+     * @param offset   The offset at which to replace the content.
+     * @param removed  The number of characters to remove at the offset.
+     * @param inserted The characters to insert at the offset instead.
+     * @return {@code Result.OK} if the new content is a valid Pico program, or a result describing the first error
+     * otherwise.
+     */
+    public synchronized PicoRec.Result edit(int offset, int removed, CharSequence inserted) {
+        if (offset < 0 || removed < 0 || offset + removed > this.text.length())
+            throw new IndexOutOfBoundsException("Range [" + offset + ", " + (offset + removed)
+                    + ") is not within [0, " + this.text.length() + "]");
+
+        this.text.replace(offset, removed, inserted);
+        TokenBuffer.Change change = this.tokens.relex(offset, removed, inserted.length());
+
+        if (!this.headerValid || change.from < this.segments.get(0))
+            this.recognizeAll();
+        else
+            this.recognize(change);
+        return this.check();
+    }
+
+    /**
+     * Obtain the result of recognizing the current content. This only recognizes the first invalid statement again
+     * to describe its error.
+     *
+     * @return {@code Result.OK} if the content is a valid Pico program, or a result describing the first error
+     * otherwise.
+     */
+    public synchronized PicoRec.Result check() {
+        if (!this.headerValid)
+            return new PicoRec(this.tokens.cursor(0)).checkHeader();
+
+        // The last segment ends at the end of the input, so it is either invalid or starts with "end"
+        if (this.stops.size() == 0)
+            throw new IllegalStateException("The last segment is valid");
+        int start = this.stops.get(0);
+        if (this.isEnd(start))
+            return PicoRec.Result.OK;
+        return new PicoRec(this.tokens.cursor(start)).checkStatement();
+    }
+
+    /**
+     * Obtain the current content.
+     *
+     * @return The content, which must not be modified.
+     */
+    public CharSequence text() {
+        return this.text;
+    }
+
+    /**
+     * Obtain the index of the token at which each statement starts, in the same way as a recognizer of the whole
+     * current content would determine them.
+     *
+     * @return The start of each statement after the header, or an empty array if the header is invalid.
+     */
+    public synchronized int[] statements() {
+        return toArray(this.segments);
+    }
+
+    /**
+     * Obtain the index of the token at which each statement starts that isn't valid, or that starts with
+     * {@code "end"}.
+     *
+     * @return The start of each statement at which recognizing the program stops, or an empty array if the header is
+     * invalid.
+     */
+    public synchronized int[] stops() {
+        return toArray(this.stops);
+    }
+
+    private static int[] toArray(PositionBuffer positions) {
+        int[] array = new int[positions.size()];
+        for (int i = 0; i < array.length; ++i)
+            array[i] = positions.get(i);
+        return array;
+    }
+
+    /**
+     * Obtain the tokens of the current content.
+     *
+     * @return The tokens, which must not be modified.
+     */
+    public TokenBuffer tokens() {
+        return this.tokens;
+    }
+
+    /**
+     * Recognize the header and determine all segments.
+     */
+    private void recognizeAll() {
+        this.headerValid = new PicoRec(this.tokens.cursor(0)).checkHeader().isOk();
+        this.segments = new PositionBuffer(16, this.tokens.size());
+        this.stops = new PositionBuffer(16, this.tokens.size());
+        if (!this.headerValid)
+            return;
+
+        int start = 0;
+        while (this.tokens.type(start) != Token.Type.DECLARATIONS_END)
+            ++start;
+        this.segment(start + 1, this.tokens.size(), true, this.segments, this.stops);
+    }
+
+    /**
+     * Determine the segments again that contain a token that was replaced.
+     */
+    private void recognize(TokenBuffer.Change change) {
+        // The first segment that contains a replaced token, or the one in which tokens were inserted
+        int first = this.search(change.from);
+
+        // The first segment that follows a ";" which wasn't replaced
+        int end = this.search(change.from + change.removed) + 1;
+
+        // Until the segments are replaced, their starts are those of the tokens before the change
+        int delta = change.inserted - change.removed;
+        int from = this.segments.get(first);
+        boolean last = end == this.segments.size();
+        int to = last ? this.tokens.size() : this.segments.get(end) + delta;
+        int stop = last ? this.stops.size() : this.stops.search(this.segments.get(end));
+        PositionBuffer segments = new PositionBuffer(16, 0);
+        PositionBuffer stops = new PositionBuffer(16, 0);
+        this.segment(from, to, last, segments, stops);
+
+        this.stops.replace(this.stops.search(from), stop, delta, stops);
+        this.segments.replace(first, end, delta, segments);
+    }
+
+    /**
+     * Find the last segment that starts at or before the given token.
+     */
+    private int search(int token) {
+        return this.segments.search(token + 1) - 1;
+    }
+
+    /**
+     * Determine the segments of the tokens in the given range, which starts at the start of a segment and ends at the
+     * start of a segment or at the end of the input, and append them to the given buffers. Only when the range ends at
+     * the end of the input does it include the segment that starts there, if the input ends with a {@code ";"}.
+     */
+    private void segment(int from, int to, boolean last, PositionBuffer segments, PositionBuffer stops) {
+        int start = from;
+        for (int i = from; i < to; ++i) {
+            if (this.tokens.type(i) == Token.Type.STATEMENT_END) {
+                this.addSegment(start, segments, stops);
+                start = i + 1;
+            }
+        }
+        if (start < to || last)
+            this.addSegment(start, segments, stops);
+    }
+
+    private void addSegment(int start, PositionBuffer segments, PositionBuffer stops) {
+        segments.add(start);
+        if (this.isEnd(start) || !new PicoRec(this.tokens.cursor(start)).checkStatement().isOk())
+            stops.add(start);
+    }
+
+    /**
+     * Checks whether the segment that starts at the given token starts with {@code "end"}, which ends the program.
+     */
+    private boolean isEnd(int start) {
+        return start < this.tokens.size() && this.tokens.type(start) == Token.Type.END;
+    }
+
+    /**
+     * The content in a gap buffer, such that replacing a part of it only moves the characters between the previous
+     * replacement and this one.
+     */
+    private static final class Text implements CharSequence {
+
+        /**
+         * The characters before the gap, followed by the gap and the characters after it.
+         */
+        private char[] chars;
+
+        /**
+         * The number of characters.
+         */
+        private int length;
+
+        /**
+         * The offset of the first character after the gap.
+         */
+        private int gap;
+
+        private Text(CharSequence text) {
+            this.length = text.length();
+            this.gap = this.length;
+            this.chars = new char[Math.max(16, this.length + this.length / 8)];
+            for (int i = 0; i < this.length; ++i)
+                this.chars[i] = text.charAt(i);
+        }
+
+        /**
+         * Replace the given number of characters at the offset by the inserted characters.
+         */
+        private void replace(int offset, int removed, CharSequence inserted) {
+            int shift = this.chars.length - this.length;
+            if (offset < this.gap)
+                System.arraycopy(this.chars, offset, this.chars, offset + shift, this.gap - offset);
+            else
+                System.arraycopy(this.chars, this.gap + shift, this.chars, this.gap, offset - this.gap);
+            this.gap = offset;
+            this.length -= removed;
+
+            int count = inserted.length();
+            if (this.chars.length - this.length < count) {
+                int capacity = Math.max(this.length + count, this.chars.length * 2);
+                char[] chars = Arrays.copyOf(this.chars, capacity);
+                int after = this.length - this.gap;
+                System.arraycopy(this.chars, this.chars.length - after, chars, capacity - after, after);
+                this.chars = chars;
+            }
+            for (int i = 0; i < count; ++i)
+                this.chars[this.gap++] = inserted.charAt(i);
+            this.length += count;
+        }
+
+        @Override
+        public int length() {
+            return this.length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= this.length)
+                throw new IndexOutOfBoundsException("Index " + index + " is not within [0, " + this.length + ")");
+            return this.chars[index < this.gap ? index : index + this.chars.length - this.length];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || start > end || end > this.length)
+                throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") is not within [0, "
+                        + this.length + "]");
+            char[] chars = new char[end - start];
+            for (int i = start; i < end; ++i)
+                chars[i - start] = this.charAt(i);
+            return new String(chars);
+        }
+
+        @Override
+        public String toString() {
+            return this.subSequence(0, this.length).toString();
+        }
+    }
+}
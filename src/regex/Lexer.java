@@ -0,0 +1,251 @@
+package regex;
+
+import dk.brics.automaton.Automaton;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Lexer generated from the definitions of a {@code RegexBuilder}, such as those read from a {@code .regex} file. The
+ * definitions that are tokens are compiled into a single {@code TaggedAutomaton} of which every accepting state is
+ * tagged with the token it accepts, so the input is tokenized by a single transition per character regardless of the
+ * number of tokens. See {@code examples/pico.tokens} for the tokens of the Pico language.
+ * <p>
+ * Like {@code PicoTokenizer}, the lexer takes the longest match at each position and skips characters that don't
+ * start any token. When a match is accepted by multiple tokens, the token that is defined first takes priority, such
+ * that keywords can be defined before identifiers. The lexer is immutable and can be shared by any number of threads,
+ * each tokenizing its own input.
+ * </p>
+ */
+public class Lexer {
+
+    /**
+     * The automaton that matches all tokens, tagged with the index of the token in {@code names}.
+     */
+    private final TaggedAutomaton automaton;
+
+    /**
+     * The names of the tokens, in order of priority.
+     */
+    private final String[] names;
+
+    /**
+     * Creates a lexer of which every definition of the given builder is a token, in the order in which they were
+     * defined.
+     *
+     * @param spec The definitions of the tokens.
+     */
+    public Lexer(RegexBuilder spec) {
+        this(spec, spec.getIdentifiers().toArray(new String[0]));
+    }
+
+    /**
+     * Creates a lexer of which the given definitions are the tokens. Other definitions may be referred to by the
+     * tokens, but aren't tokens themselves.
+     *
+     * @param spec   The definitions of the tokens.
+     * @param tokens The identifiers of the definitions that are tokens, in order of priority.
+     * @throws IllegalArgumentException When there is no definition for one of the tokens.
+     */
+    public Lexer(RegexBuilder spec, String... tokens) {
+        Automaton[] patterns = new Automaton[tokens.length];
+        for (int i = 0; i < tokens.length; ++i) {
+            patterns[i] = spec.getAutomaton(tokens[i]);
+            if (patterns[i] == null)
+                throw new IllegalArgumentException("There is no definition with identifier " + tokens[i]);
+        }
+
+        this.automaton = new TaggedAutomaton(patterns);
+        this.names = tokens.clone();
+    }
+
+    /**
+     * Creates a lexer from an automaton that was compiled before, such as by {@code RegexSpec}.
+     *
+     * @param automaton The automaton that matches all tokens, tagged with the index of the token in {@code names}.
+     * @param names     The names of the tokens, in order of priority.
+     */
+    Lexer(TaggedAutomaton automaton, String[] names) {
+        this.automaton = automaton;
+        this.names = names;
+    }
+
+    /**
+     * Obtain the names of the tokens.
+     *
+     * @return The names in order of priority, of which the index is the tag of the token.
+     */
+    public List<String> names() {
+        return Collections.unmodifiableList(Arrays.asList(this.names));
+    }
+
+    /**
+     * Obtain the tag of the given token.
+     *
+     * @param name The name of the token.
+     * @return The tag of the token, or {@code TaggedAutomaton.NO_TAG} if there is no such token.
+     */
+    public int tag(String name) {
+        for (int i = 0; i < this.names.length; ++i)
+            if (this.names[i].equals(name))
+                return i;
+        return TaggedAutomaton.NO_TAG;
+    }
+
+    /**
+     * Obtain the automaton that matches all tokens.
+     *
+     * @return The automaton, of which the tag of each accepting state is the tag of the token it accepts.
+     */
+    public TaggedAutomaton automaton() {
+        return this.automaton;
+    }
+
+    /**
+     * Tokenize the given characters.
+     *
+     * @param input The characters to tokenize.
+     * @return A cursor that rests on the first token.
+     */
+    public Cursor tokenize(CharSequence input) {
+        return new Cursor(new TokenScanner.CharSequenceScanner(this.automaton, input));
+    }
+
+    /**
+     * Tokenize the characters of the given reader incrementally, keeping only a fixed size buffer in memory.
+     *
+     * @param reader The reader to tokenize.
+     * @return A cursor that rests on the first token.
+     */
+    public Cursor tokenize(Reader reader) {
+        return new Cursor(new TokenScanner.ReaderScanner(this.automaton, reader,
+                TokenScanner.ReaderScanner.DEFAULT_BUFFER_SIZE));
+    }
+
+    /**
+     * Tokenize the given file from a memory mapping. Each byte is interpreted as a single character.
+     *
+     * @param path The file to tokenize.
+     * @return A cursor that rests on the first token.
+     * @throws IOException When the file couldn't be opened or mapped.
+     */
+    public Cursor tokenize(Path path) throws IOException {
+        return new Cursor(new TokenScanner.MappedScanner(this.automaton, path,
+                TokenScanner.MappedScanner.DEFAULT_SEGMENT_SIZE));
+    }
+
+    /**
+     * Cursor over the tokens of an input. The cursor rests on the current token and exposes it as primitive values,
+     * so iterating over the tokens doesn't require an object per token.
+     */
+    public class Cursor {
+
+        /**
+         * The scanner that finds the consecutive tokens in the input.
+         */
+        private final TokenScanner scanner;
+
+        /**
+         * The tag of the token the cursor rests on, or {@code TaggedAutomaton.NO_TAG} if all tokens have been read.
+         */
+        private int tag;
+
+        private Cursor(TokenScanner scanner) {
+            this.scanner = scanner;
+
+            // Move the cursor onto the first token
+            this.advance();
+        }
+
+        /**
+         * Move the cursor to the next token.
+         *
+         * @return {@code true} if the cursor rests on a token, {@code false} if all tokens have been read.
+         */
+        public boolean advance() {
+            this.tag = this.scanner.find() ? this.scanner.tag() : TaggedAutomaton.NO_TAG;
+            return this.tag != TaggedAutomaton.NO_TAG;
+        }
+
+        /**
+         * Obtain the tag of the token the cursor rests on.
+         *
+         * @return The index of the token in {@code names}, or {@code TaggedAutomaton.NO_TAG} if all tokens have been
+         * read.
+         */
+        public int tag() {
+            return this.tag;
+        }
+
+        /**
+         * Obtain the name of the token the cursor rests on.
+         *
+         * @return The name of the current token, or null if all tokens have been read.
+         */
+        public String name() {
+            return this.tag == TaggedAutomaton.NO_TAG ? null : Lexer.this.names[this.tag];
+        }
+
+        /**
+         * Obtain the value of the token the cursor rests on. This creates a new String.
+         *
+         * @return The characters of the current token, or null if all tokens have been read.
+         */
+        public String value() {
+            return this.tag == TaggedAutomaton.NO_TAG ? null : this.scanner.group();
+        }
+
+        /**
+         * Obtain the offset in the input at which the token the cursor rests on starts.
+         *
+         * @return The start offset of the current token, or the length of the input if all tokens have been read.
+         */
+        public long start() {
+            return this.scanner.start();
+        }
+
+        /**
+         * Obtain the offset in the input at which the token the cursor rests on ends.
+         *
+         * @return The end offset (exclusive) of the current token, or the length of the input if all tokens have
+         * been read.
+         */
+        public long end() {
+            return this.scanner.end();
+        }
+
+        /**
+         * Obtain the line on which the token the cursor rests on starts. Lines are separated by {@code '\n'}.
+         *
+         * @return The line number of {@code start}, counting from 1.
+         */
+        public int line() {
+            return this.scanner.line();
+        }
+
+        /**
+         * Obtain the column at which the token the cursor rests on starts.
+         *
+         * @return The column number of {@code start} within its line, counting from 1.
+         */
+        public int column() {
+            return this.scanner.column();
+        }
+
+        /**
+         * Checks whether the value of the token the cursor rests on consists of exactly the given characters, without
+         * creating a String for it.
+         *
+         * @param chars The characters to compare to.
+         * @return {@code true} if the value of the current token is equal to the given characters, {@code false}
+         * otherwise.
+         */
+        public boolean contentEquals(CharSequence chars) {
+            return this.tag != TaggedAutomaton.NO_TAG && this.scanner.contentEquals(chars);
+        }
+    }
+}
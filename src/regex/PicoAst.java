@@ -0,0 +1,299 @@
+package regex;
+
+import java.util.Arrays;
+
+/**
+ * Abstract syntax tree of a Pico program, stored in an arena: every node is an index into parallel arrays of kind,
+ * first child, next sibling and the location of the token it originates from. Compared to an object per node this
+ * takes 17 bytes per node and creates no garbage, and the arena can be reset and reused for the next program, such
+ * that trees of millions of statements can be built one after another without pressure on the garbage collector.
+ * <p>
+ * The program is always node 0. Its children are its declarations followed by its assignments. An assignment has the
+ * variable it assigns to and the assigned expression as children, a binary expression its left and right operand and
+ * a negation its operand. Parentheses don't have a node of their own.
+ * </p>
+ */
+public final class PicoAst {
+
+    /**
+     * Index that indicates the absence of a node.
+     */
+    public static final int NONE = -1;
+
+    /**
+     * The initial number of nodes for which space is reserved.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * All kinds, indexed by their ordinal.
+     */
+    private static final Kind[] KINDS = Kind.values();
+
+    /**
+     * The ordinal of the {@code Kind} of each node.
+     */
+    private byte[] kinds;
+
+    /**
+     * The first child of each node, or {@code NONE}.
+     */
+    private int[] firstChildren;
+
+    /**
+     * The next sibling of each node, or {@code NONE}.
+     */
+    private int[] nextSiblings;
+
+    /**
+     * The offset in the input at which the token of each node starts.
+     */
+    private int[] starts;
+
+    /**
+     * The number of characters of the token of each node.
+     */
+    private int[] lengths;
+
+    /**
+     * The number of nodes.
+     */
+    private int size;
+
+    /**
+     * The input from which the tree was built, or null if it isn't available.
+     */
+    private CharSequence input;
+
+    /**
+     * Creates an empty arena.
+     */
+    public PicoAst() {
+        this.kinds = new byte[INITIAL_CAPACITY];
+        this.firstChildren = new int[INITIAL_CAPACITY];
+        this.nextSiblings = new int[INITIAL_CAPACITY];
+        this.starts = new int[INITIAL_CAPACITY];
+        this.lengths = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Remove all nodes, keeping the allocated space such that the arena can be reused for another tree.
+     *
+     * @param input The input from which the next tree is built, or null if it isn't available.
+     */
+    void reset(CharSequence input) {
+        this.size = 0;
+        this.input = input;
+    }
+
+    /**
+     * Append a node without children.
+     *
+     * @param kind   The kind of node.
+     * @param start  The offset in the input at which the token of the node starts.
+     * @param length The number of characters of the token of the node.
+     * @return The index of the new node.
+     */
+    int add(Kind kind, int start, int length) {
+        if (this.size == this.kinds.length) {
+            int capacity = this.size * 2;
+            this.kinds = Arrays.copyOf(this.kinds, capacity);
+            this.firstChildren = Arrays.copyOf(this.firstChildren, capacity);
+            this.nextSiblings = Arrays.copyOf(this.nextSiblings, capacity);
+            this.starts = Arrays.copyOf(this.starts, capacity);
+            this.lengths = Arrays.copyOf(this.lengths, capacity);
+        }
+
+        this.kinds[this.size] = (byte) kind.ordinal();
+        this.firstChildren[this.size] = NONE;
+        this.nextSiblings[this.size] = NONE;
+        this.starts[this.size] = start;
+        this.lengths[this.size] = length;
+        return this.size++;
+    }
+
+    void setFirstChild(int node, int child) {
+        this.firstChildren[node] = child;
+    }
+
+    void setNextSibling(int node, int sibling) {
+        this.nextSiblings[node] = sibling;
+    }
+
+    /**
+     * Obtain the number of nodes.
+     *
+     * @return The number of nodes in the tree.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Obtain the node of the program.
+     *
+     * @return The root of the tree, or {@code NONE} if the tree is empty.
+     */
+    public int root() {
+        return this.size > 0 ? 0 : NONE;
+    }
+
+    /**
+     * Obtain the kind of the given node.
+     *
+     * @param node The index of the node.
+     * @return The kind of the node.
+     */
+    public Kind kind(int node) {
+        return KINDS[this.kinds[this.check(node)]];
+    }
+
+    /**
+     * Obtain the first child of the given node.
+     *
+     * @param node The index of the node.
+     * @return The index of the first child, or {@code NONE} if the node has no children.
+     */
+    public int firstChild(int node) {
+        return this.firstChildren[this.check(node)];
+    }
+
+    /**
+     * Obtain the next sibling of the given node.
+     *
+     * @param node The index of the node.
+     * @return The index of the next sibling, or {@code NONE} if the node is the last child of its parent.
+     */
+    public int nextSibling(int node) {
+        return this.nextSiblings[this.check(node)];
+    }
+
+    /**
+     * Obtain the offset in the input at which the token of the given node starts. This is the name of a variable,
+     * the digits of a number, or the keyword or operator of the other kinds of nodes.
+     *
+     * @param node The index of the node.
+     * @return The start offset of the token of the node.
+     */
+    public int start(int node) {
+        return this.starts[this.check(node)];
+    }
+
+    /**
+     * Obtain the length of the token of the given node.
+     *
+     * @param node The index of the node.
+     * @return The number of characters of the token of the node.
+     */
+    public int length(int node) {
+        return this.lengths[this.check(node)];
+    }
+
+    /**
+     * Obtain the value of the token of the given node, such as the name of a variable. This creates a new String.
+     *
+     * @param node The index of the node.
+     * @return The value of the token of the node.
+     * @throws IllegalStateException When the input from which the tree was built isn't available, because it was
+     *                               read from a stream or file.
+     */
+    public String value(int node) {
+        if (this.input == null)
+            throw new IllegalStateException("The input of the tree is not available");
+        return this.input.subSequence(this.start(node), this.starts[node] + this.lengths[node]).toString();
+    }
+
+    private int check(int node) {
+        if (node < 0 || node >= this.size)
+            throw new IndexOutOfBoundsException("Node " + node + " is not within [0, " + this.size + ")");
+        return node;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        if (this.size > 0)
+            this.append(builder, this.root());
+        return builder.toString();
+    }
+
+    /**
+     * Append the given node in prefix notation, such as {@code (ADD a (NEGATE 1))}. The values of variables and
+     * numbers are only shown when the input is available. The tree is traversed with an explicit stack, as long chains
+     * of operators nest arbitrarily deep on their left.
+     */
+    private void append(StringBuilder builder, int root) {
+        // The nodes that remain to be appended, and the complement of each node of which the ')' remains
+        int[] stack = new int[16];
+        int size = 0;
+        stack[size++] = root;
+        while (size > 0) {
+            int node = stack[--size];
+            if (node < 0) {
+                builder.append(')');
+                continue;
+            }
+            if (node != root)
+                builder.append(' ');
+
+            Kind kind = this.kind(node);
+            if (kind == Kind.VARIABLE || kind == Kind.NUMBER) {
+                builder.append(this.input != null ? this.value(node) : kind.name());
+                continue;
+            }
+
+            builder.append('(').append(kind.name());
+            if (kind == Kind.DECLARATION && this.input != null)
+                builder.append(' ').append(this.value(node));
+
+            int children = 0;
+            for (int child = this.firstChildren[node]; child != NONE; child = this.nextSiblings[child])
+                ++children;
+            if (size + children + 1 > stack.length)
+                stack = Arrays.copyOf(stack, Math.max(size + children + 1, stack.length * 2));
+            stack[size++] = ~node;
+            int index = size + children;
+            for (int child = this.firstChildren[node]; child != NONE; child = this.nextSiblings[child])
+                stack[--index] = child;
+            size += children;
+        }
+    }
+
+    /**
+     * The kinds of nodes.
+     */
+    public enum Kind {
+        /**
+         * The program, of which the declarations and assignments are the children.
+         */
+        PROGRAM,
+        /**
+         * The declaration of a variable.
+         */
+        DECLARATION,
+        /**
+         * An assignment of an expression to a variable.
+         */
+        ASSIGNMENT,
+        /**
+         * The sum of two expressions.
+         */
+        ADD,
+        /**
+         * The product of two expressions.
+         */
+        MULTIPLY,
+        /**
+         * The negation of an expression.
+         */
+        NEGATE,
+        /**
+         * The use of a variable.
+         */
+        VARIABLE,
+        /**
+         * A natural number.
+         */
+        NUMBER
+    }
+}
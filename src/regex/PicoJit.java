@@ -0,0 +1,537 @@
+package regex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Compiles Pico programs to JVM classes, such that programs that are executed many times are optimized by the JIT
+ * compiler of the JVM like any other code. Each register of a {@code PicoProgram} becomes a local {@code long}
+ * variable of the generated method, which loads the initial values of the variables from an array, runs the
+ * instructions of the program as straight-line code and stores the final values back in the array.
+ * <p>
+ * The class file is written directly, targeting class file version 52 such that it runs on Java 8. As the generated
+ * code contains no branches, it needs no stack map frames. Every class is defined by a class loader of its own, such
+ * that it can be unloaded together with the program. The cache of compiled programs only refers to them softly, so
+ * the garbage collector may clear programs that are no longer in use when memory runs low, after which their classes
+ * are unloaded. Programs that exceed the limits of a class file, such as the 64KB of code per method, are executed by
+ * the {@code PicoProgram} interpreter instead.
+ * </p>
+ */
+public final class PicoJit {
+
+    /**
+     * The compiled programs, by the hash of their source. Entries of which the program was cleared are removed when
+     * the next program is compiled.
+     */
+    private static final ConcurrentHashMap<String, CacheEntry> cache = new ConcurrentHashMap<>();
+
+    /**
+     * The entries of which the program was cleared by the garbage collector.
+     */
+    private static final ReferenceQueue<Compiled> cleared = new ReferenceQueue<>();
+
+    /**
+     * The number of classes that were generated, which is used to give each class a unique name.
+     */
+    private static final AtomicInteger classes = new AtomicInteger();
+
+    private PicoJit() {
+    }
+
+    /**
+     * Compile the given Pico program. Programs with the same source are compiled only once: as long as the compiled
+     * program is in use, all subsequent calls return the same instance.
+     *
+     * @param source The source of the program.
+     * @return The compiled program.
+     * @throws PicoRec.ParseException When the source isn't a valid Pico program.
+     */
+    public static Compiled compile(String source) {
+        for (Reference<? extends Compiled> entry = cleared.poll(); entry != null; entry = cleared.poll())
+            cache.remove(((CacheEntry) entry).hash, entry);
+
+        Compiled[] compiled = new Compiled[1];
+        cache.compute(Hashes.sha1(source), (hash, entry) -> {
+            compiled[0] = entry == null ? null : entry.get();
+            if (compiled[0] != null)
+                return entry;
+            compiled[0] = compile(PicoProgram.compile(source));
+            return new CacheEntry(hash, compiled[0]);
+        });
+        return compiled[0];
+    }
+
+    /**
+     * Compile the given program, without caching it.
+     *
+     * @param program The program to compile.
+     * @return The compiled program.
+     */
+    public static Compiled compile(PicoProgram program) {
+        String name = "regex.PicoJit$Program" + classes.incrementAndGet();
+        byte[] bytes = ClassWriter.write(name.replace('.', '/'), program);
+        if (bytes == null)
+            return new Compiled(program, null);
+
+        try {
+            Class<?> type = new Loader().define(name, bytes);
+            @SuppressWarnings("unchecked")
+            Consumer<long[]> body = (Consumer<long[]>) type.getConstructor().newInstance();
+            return new Compiled(program, body);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not instantiate " + name, e);
+        }
+    }
+
+    /**
+     * A program that is compiled to a JVM class, or interpreted when it couldn't be compiled.
+     */
+    public static final class Compiled {
+
+        private final PicoProgram program;
+
+        /**
+         * The instance of the generated class, or null if the program is interpreted.
+         */
+        private final Consumer<long[]> body;
+
+        private Compiled(PicoProgram program, Consumer<long[]> body) {
+            this.program = program;
+            this.body = body;
+        }
+
+        /**
+         * Execute the program.
+         *
+         * @param initial The initial values of the variables, indexed by their register. Variables for which no value
+         *                is given start at 0.
+         * @return The final values of all variables, indexed by their register.
+         */
+        public long[] execute(long... initial) {
+            if (this.body == null)
+                return this.program.execute(initial);
+
+            long[] variables = Arrays.copyOf(initial, this.program.variables());
+            this.body.accept(variables);
+            return variables;
+        }
+
+        /**
+         * Execute the program and name its results.
+         *
+         * @param initial The initial values of the variables, indexed by their register.
+         * @return The final value of each variable by its name, in the order of their registers.
+         */
+        public Map<String, Long> evaluate(long... initial) {
+            long[] values = this.execute(initial);
+            Map<String, Long> result = new LinkedHashMap<>();
+            for (int i = 0; i < values.length; ++i)
+                result.put(this.program.variable(i), values[i]);
+            return result;
+        }
+
+        /**
+         * Obtain the program that is compiled.
+         *
+         * @return The program, which describes the names and registers of the variables.
+         */
+        public PicoProgram program() {
+            return this.program;
+        }
+
+        /**
+         * Indicates whether the program is executed as a generated JVM class.
+         *
+         * @return {@code true} if the program was compiled to a class, {@code false} if it is interpreted.
+         */
+        public boolean isCompiled() {
+            return this.body != null;
+        }
+    }
+
+    /**
+     * Soft reference to a compiled program in the cache, which remembers its key such that it can be removed once the
+     * program is cleared.
+     */
+    private static class CacheEntry extends SoftReference<Compiled> {
+
+        private final String hash;
+
+        private CacheEntry(String hash, Compiled compiled) {
+            super(compiled, cleared);
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Class loader that defines a single generated class.
+     */
+    private static class Loader extends ClassLoader {
+
+        private Loader() {
+            super(PicoJit.class.getClassLoader());
+        }
+
+        private Class<?> define(String name, byte[] bytes) {
+            return this.defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Writes the class file of a program. The class implements {@code Consumer<long[]>}, of which the {@code accept}
+     * method executes the program on the given array of variables. The instructions are divided over static methods
+     * that each stay below the size up to which HotSpot compiles methods, as larger methods are only interpreted. Each
+     * of these methods loads the variables it uses from the array and stores the ones it assigns back in it, and
+     * {@code accept} calls them in order.
+     */
+    private static class ClassWriter {
+
+        /**
+         * The maximum number of bytes of code per method that is allowed by the class file format.
+         */
+        private static final int MAXIMUM_CODE_LENGTH = 65535;
+
+        /**
+         * The number of bytes of code at which a method is ended at the next assignment. HotSpot doesn't compile
+         * methods of more than 8000 bytes, which leaves room for the largest assignments.
+         */
+        private static final int CHUNK_LENGTH = 6000;
+
+        /**
+         * The maximum number of bytes of code needed to load and store a single variable.
+         */
+        private static final int TRANSFER_LENGTH = 10;
+
+        private static final int MAXIMUM_CONSTANTS = 65535;
+
+        private static final int ACC_PUBLIC = 0x0001;
+        private static final int ACC_PRIVATE = 0x0002;
+        private static final int ACC_STATIC = 0x0008;
+        private static final int ACC_FINAL = 0x0010;
+        private static final int ACC_SUPER = 0x0020;
+
+        private static final int ALOAD_0 = 0x2a;
+        private static final int ALOAD_1 = 0x2b;
+        private static final int CHECKCAST = 0xc0;
+        private static final int INVOKESPECIAL = 0xb7;
+        private static final int INVOKESTATIC = 0xb8;
+        private static final int RETURN = 0xb1;
+        private static final int ICONST_0 = 0x03;
+        private static final int BIPUSH = 0x10;
+        private static final int SIPUSH = 0x11;
+        private static final int LDC2_W = 0x14;
+        private static final int LALOAD = 0x2f;
+        private static final int LASTORE = 0x50;
+        private static final int LLOAD = 0x16;
+        private static final int LSTORE = 0x37;
+        private static final int WIDE = 0xc4;
+        private static final int LADD = 0x61;
+        private static final int LMUL = 0x69;
+        private static final int LNEG = 0x75;
+
+        private final PicoProgram program;
+
+        /**
+         * The entries of the constant pool.
+         */
+        private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+
+        private final DataOutputStream poolOut = new DataOutputStream(this.pool);
+
+        /**
+         * The number of entries of the constant pool, plus one as entry 0 doesn't exist.
+         */
+        private int poolSize = 1;
+
+        /**
+         * The constant pool entry of each string that is in it.
+         */
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        /**
+         * The constant pool entry of each number of the program.
+         */
+        private final int[] numbers;
+
+        /**
+         * The methods, which are written after the constant pool is complete.
+         */
+        private final ByteArrayOutputStream methods = new ByteArrayOutputStream();
+
+        private final DataOutputStream methodsOut = new DataOutputStream(this.methods);
+
+        private int methodCount;
+
+        private final int codeName;
+
+        private ClassWriter(PicoProgram program) throws IOException {
+            this.program = program;
+            this.codeName = this.utf8("Code");
+            long[] constants = program.constants();
+            this.numbers = new int[constants.length];
+            for (int i = 0; i < constants.length; ++i) {
+                this.numbers[i] = this.poolSize;
+                this.poolOut.writeByte(5); // Long, which takes two entries
+                this.poolOut.writeLong(constants[i]);
+                this.poolSize += 2;
+            }
+        }
+
+        /**
+         * Write the class file of the given program.
+         *
+         * @param name    The internal name of the class.
+         * @param program The program to compile.
+         * @return The class file, or null if the program exceeds the limits of a class file.
+         */
+        private static byte[] write(String name, PicoProgram program) {
+            // Local 0 holds the array of variables, the registers take two locals each
+            if (program.variables() > Short.MAX_VALUE || 1 + 2 * program.registers() > 65535
+                    || 2 * program.constants().length >= MAXIMUM_CONSTANTS)
+                return null;
+
+            try {
+                ClassWriter writer = new ClassWriter(program);
+                int thisClass = writer.classReference(name);
+                int objectClass = writer.classReference("java/lang/Object");
+                int consumerClass = writer.classReference("java/util/function/Consumer");
+                if (!writer.body(thisClass, objectClass))
+                    return null;
+                if (writer.poolSize > MAXIMUM_CONSTANTS)
+                    return null;
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(0xcafebabe);
+                out.writeShort(0);
+                out.writeShort(52);
+                out.writeShort(writer.poolSize);
+                writer.pool.writeTo(out);
+                out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+                out.writeShort(thisClass);
+                out.writeShort(objectClass);
+                out.writeShort(1);
+                out.writeShort(consumerClass);
+                out.writeShort(0); // fields
+                out.writeShort(writer.methodCount);
+                writer.methods.writeTo(out);
+                out.writeShort(0); // attributes
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                // Writing to memory doesn't fail
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Write the constructor, the chunks of the program and {@code accept}, which calls the chunks.
+         *
+         * @return {@code true} if all methods fit in a class file, {@code false} otherwise.
+         */
+        private boolean body(int thisClass, int objectClass) throws IOException {
+            ByteArrayOutputStream constructor = new ByteArrayOutputStream();
+            constructor.write(ALOAD_0);
+            constructor.write(INVOKESPECIAL);
+            u2(constructor, this.methodReference(objectClass, "<init>", "()V"));
+            constructor.write(RETURN);
+            this.method(ACC_PUBLIC, "<init>", "()V", 1, 1, constructor);
+
+            ByteArrayOutputStream accept = new ByteArrayOutputStream();
+            accept.write(ALOAD_1);
+            accept.write(CHECKCAST);
+            u2(accept, this.classReference("[J"));
+            accept.write(0x4c); // astore_1
+
+            int[] instructions = this.program.code();
+            int variables = this.program.variables();
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+            BitSet used = new BitSet(variables);
+            BitSet assigned = new BitSet(variables);
+            for (int pc = 0; pc < instructions.length; pc += PicoProgram.INSTRUCTION_SIZE) {
+                this.instruction(chunk, instructions, pc, used, assigned);
+
+                // Only the last instruction of an assignment stores in a variable, the temporaries are free after it
+                boolean endOfAssignment = instructions[pc + 1] < variables;
+                if (endOfAssignment && chunk.size() + TRANSFER_LENGTH * used.cardinality() >= CHUNK_LENGTH
+                        || pc + PicoProgram.INSTRUCTION_SIZE == instructions.length) {
+                    String chunkName = "chunk" + this.methodCount;
+                    if (!this.chunk(chunkName, chunk, used, assigned))
+                        return false;
+                    accept.write(ALOAD_1);
+                    accept.write(INVOKESTATIC);
+                    u2(accept, this.methodReference(thisClass, chunkName, "([J)V"));
+                    chunk.reset();
+                    used.clear();
+                    assigned.clear();
+                }
+            }
+
+            accept.write(RETURN);
+            return accept.size() <= MAXIMUM_CODE_LENGTH
+                    && this.method(ACC_PUBLIC, "accept", "(Ljava/lang/Object;)V", 2, 2, accept);
+        }
+
+        /**
+         * Write a static method that loads the used variables, runs the given code and stores the assigned variables.
+         *
+         * @return {@code true} if the method fits in a class file, {@code false} otherwise.
+         */
+        private boolean chunk(String name, ByteArrayOutputStream body, BitSet used, BitSet assigned)
+                throws IOException {
+            ByteArrayOutputStream code = new ByteArrayOutputStream();
+            for (int variable = used.nextSetBit(0); variable >= 0; variable = used.nextSetBit(variable + 1)) {
+                code.write(ALOAD_0);
+                index(code, variable);
+                code.write(LALOAD);
+                local(code, LSTORE, variable);
+            }
+            body.writeTo(code);
+            for (int variable = assigned.nextSetBit(0); variable >= 0; variable = assigned.nextSetBit(variable + 1)) {
+                code.write(ALOAD_0);
+                index(code, variable);
+                local(code, LLOAD, variable);
+                code.write(LASTORE);
+            }
+            code.write(RETURN);
+            return code.size() <= MAXIMUM_CODE_LENGTH
+                    && this.method(ACC_PRIVATE | ACC_STATIC, name, "([J)V", 4, 1 + 2 * this.program.registers(), code);
+        }
+
+        /**
+         * Write the code of a single instruction of the program, recording the variables it uses and assigns.
+         */
+        private void instruction(ByteArrayOutputStream code, int[] instructions, int pc, BitSet used,
+                                 BitSet assigned) {
+            int variables = this.program.variables();
+            int first = instructions[pc + 2];
+            int operation = instructions[pc];
+            if (operation == PicoProgram.CONSTANT) {
+                code.write(LDC2_W);
+                u2(code, this.numbers[first]);
+            } else {
+                local(code, LLOAD, first);
+                if (first < variables)
+                    used.set(first);
+            }
+
+            if (operation == PicoProgram.ADD || operation == PicoProgram.MULTIPLY) {
+                int second = instructions[pc + 3];
+                local(code, LLOAD, second);
+                if (second < variables)
+                    used.set(second);
+                code.write(operation == PicoProgram.ADD ? LADD : LMUL);
+            } else if (operation == PicoProgram.NEGATE) {
+                code.write(LNEG);
+            } else if (operation != PicoProgram.CONSTANT && operation != PicoProgram.MOVE) {
+                throw new IllegalStateException("Unknown operation " + operation + " at " + pc);
+            }
+
+            int destination = instructions[pc + 1];
+            local(code, LSTORE, destination);
+            if (destination < variables) {
+                used.set(destination);
+                assigned.set(destination);
+            }
+        }
+
+        private boolean method(int access, String name, String descriptor, int maximumStack, int maximumLocals,
+                               ByteArrayOutputStream code) throws IOException {
+            if (this.methodCount == 65535)
+                return false;
+
+            DataOutputStream out = this.methodsOut;
+            out.writeShort(access);
+            out.writeShort(this.utf8(name));
+            out.writeShort(this.utf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(this.codeName);
+            out.writeInt(12 + code.size());
+            out.writeShort(maximumStack);
+            out.writeShort(maximumLocals);
+            out.writeInt(code.size());
+            code.writeTo(out);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+            ++this.methodCount;
+            return true;
+        }
+
+        private int utf8(String value) throws IOException {
+            Integer index = this.strings.get(value);
+            if (index == null) {
+                this.poolOut.writeByte(1);
+                this.poolOut.writeUTF(value);
+                index = this.poolSize++;
+                this.strings.put(value, index);
+            }
+            return index;
+        }
+
+        private int classReference(String name) throws IOException {
+            int utf8 = this.utf8(name);
+            this.poolOut.writeByte(7);
+            this.poolOut.writeShort(utf8);
+            return this.poolSize++;
+        }
+
+        private int methodReference(int owner, String name, String descriptor) throws IOException {
+            int nameIndex = this.utf8(name);
+            int descriptorIndex = this.utf8(descriptor);
+            this.poolOut.writeByte(12); // NameAndType
+            this.poolOut.writeShort(nameIndex);
+            this.poolOut.writeShort(descriptorIndex);
+            int nameAndType = this.poolSize++;
+            this.poolOut.writeByte(10); // Methodref
+            this.poolOut.writeShort(owner);
+            this.poolOut.writeShort(nameAndType);
+            return this.poolSize++;
+        }
+
+        /**
+         * Write a load or store of the local variable of the given register. Local 0 holds the array of variables.
+         */
+        private static void local(ByteArrayOutputStream code, int opcode, int register) {
+            int local = 1 + 2 * register;
+            if (local <= 0xff) {
+                code.write(opcode);
+                code.write(local);
+            } else {
+                code.write(WIDE);
+                code.write(opcode);
+                u2(code, local);
+            }
+        }
+
+        /**
+         * Write a push of the given array index.
+         */
+        private static void index(ByteArrayOutputStream code, int index) {
+            if (index <= 5) {
+                code.write(ICONST_0 + index);
+            } else if (index <= Byte.MAX_VALUE) {
+                code.write(BIPUSH);
+                code.write(index);
+            } else {
+                code.write(SIPUSH);
+                u2(code, index);
+            }
+        }
+
+        private static void u2(ByteArrayOutputStream code, int value) {
+            code.write(value >>> 8);
+            code.write(value);
+        }
+    }
+}
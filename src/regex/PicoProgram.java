@@ -0,0 +1,403 @@
+package regex;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Pico program compiled to flat register based bytecode. Every variable is resolved to a register once, during
+ * compilation, and the intermediate results of expressions are kept in temporary registers after those of the
+ * variables. Executing the program is then a single loop over an {@code int} array that operates on a {@code long}
+ * array, without looking up names or walking the tree.
+ * <p>
+ * Every instruction takes four ints: the operation, the destination register and two operands, which are registers
+ * or, for {@code CONSTANT}, an index into the constants. Variables start at 0, also when they are used without being
+ * declared. Arithmetic is performed on 64 bit values and wraps around on overflow, numbers that don't fit in 64 bits
+ * are truncated likewise.
+ * </p>
+ */
+public final class PicoProgram {
+
+    /**
+     * {@code registers[destination] = constants[first]}
+     */
+    static final int CONSTANT = 0;
+
+    /**
+     * {@code registers[destination] = registers[first]}
+     */
+    static final int MOVE = 1;
+
+    /**
+     * {@code registers[destination] = -registers[first]}
+     */
+    static final int NEGATE = 2;
+
+    /**
+     * {@code registers[destination] = registers[first] + registers[second]}
+     */
+    static final int ADD = 3;
+
+    /**
+     * {@code registers[destination] = registers[first] * registers[second]}
+     */
+    static final int MULTIPLY = 4;
+
+    /**
+     * The number of ints per instruction.
+     */
+    static final int INSTRUCTION_SIZE = 4;
+
+    /**
+     * The instructions of the program.
+     */
+    private final int[] code;
+
+    /**
+     * The numbers that occur in the program.
+     */
+    private final long[] constants;
+
+    /**
+     * The names of the variables, indexed by their register.
+     */
+    private final String[] variables;
+
+    /**
+     * The total number of registers, for the variables and the temporary values.
+     */
+    private final int registers;
+
+    private PicoProgram(int[] code, long[] constants, String[] variables, int registers) {
+        this.code = code;
+        this.constants = constants;
+        this.variables = variables;
+        this.registers = registers;
+    }
+
+    /**
+     * Compile the given Pico program.
+     *
+     * @param source The source of the program.
+     * @return The compiled program.
+     * @throws PicoRec.ParseException When the source isn't a valid Pico program.
+     */
+    public static PicoProgram compile(String source) {
+        return compile(new PicoRec(source).parse(new PicoAst()));
+    }
+
+    /**
+     * Compile the program of the given tree.
+     *
+     * @param ast The tree of the program, which must have been built from an input that is available.
+     * @return The compiled program.
+     * @throws IllegalStateException When the input of the tree isn't available.
+     */
+    public static PicoProgram compile(PicoAst ast) {
+        return new Compiler(ast).compile();
+    }
+
+    /**
+     * Execute the program.
+     *
+     * @param initial The initial values of the variables, indexed by their register. Variables for which no value is
+     *                given start at 0.
+     * @return The final values of all variables, indexed by their register.
+     */
+    public long[] execute(long... initial) {
+        long[] registers = new long[this.registers];
+        System.arraycopy(initial, 0, registers, 0, Math.min(initial.length, this.variables.length));
+        int[] code = this.code;
+        long[] constants = this.constants;
+
+        for (int pc = 0; pc < code.length; pc += INSTRUCTION_SIZE) {
+            int destination = code[pc + 1];
+            int first = code[pc + 2];
+            switch (code[pc]) {
+                case CONSTANT:
+                    registers[destination] = constants[first];
+                    break;
+                case MOVE:
+                    registers[destination] = registers[first];
+                    break;
+                case NEGATE:
+                    registers[destination] = -registers[first];
+                    break;
+                case ADD:
+                    registers[destination] = registers[first] + registers[code[pc + 3]];
+                    break;
+                case MULTIPLY:
+                    registers[destination] = registers[first] * registers[code[pc + 3]];
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown operation " + code[pc] + " at " + pc);
+            }
+        }
+        return Arrays.copyOf(registers, this.variables.length);
+    }
+
+    /**
+     * Execute the program and name its results.
+     *
+     * @return The final value of each variable by its name, in the order in which the variables are declared or
+     * first used.
+     */
+    public Map<String, Long> evaluate() {
+        long[] values = this.execute();
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < values.length; ++i)
+            result.put(this.variables[i], values[i]);
+        return result;
+    }
+
+    /**
+     * Obtain the number of variables.
+     *
+     * @return The number of variables, which are the registers from 0 up to this number.
+     */
+    public int variables() {
+        return this.variables.length;
+    }
+
+    /**
+     * Obtain the name of the variable in the given register.
+     *
+     * @param register The register of the variable.
+     * @return The name of the variable.
+     */
+    public String variable(int register) {
+        return this.variables[register];
+    }
+
+    /**
+     * Obtain the instructions of the program, which must not be modified.
+     */
+    int[] code() {
+        return this.code;
+    }
+
+    /**
+     * Obtain the numbers that occur in the program, which must not be modified.
+     */
+    long[] constants() {
+        return this.constants;
+    }
+
+    /**
+     * Obtain the total number of registers, for the variables and the temporary values.
+     */
+    int registers() {
+        return this.registers;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int pc = 0; pc < this.code.length; pc += INSTRUCTION_SIZE) {
+            int first = this.code[pc + 2];
+            builder.append('r').append(this.code[pc + 1]).append(" = ");
+            switch (this.code[pc]) {
+                case CONSTANT:
+                    builder.append(this.constants[first]);
+                    break;
+                case MOVE:
+                    builder.append('r').append(first);
+                    break;
+                case NEGATE:
+                    builder.append("-r").append(first);
+                    break;
+                default:
+                    builder.append('r').append(first).append(this.code[pc] == ADD ? " + r" : " * r")
+                            .append(this.code[pc + 3]);
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Compiles a tree to bytecode. Temporary registers are allocated as a stack per assignment, such that the number
+     * of registers only depends on the deepest expression.
+     */
+    private static class Compiler {
+
+        /**
+         * The initial size of the stack of operations on the left spine of an expression, which grows when needed.
+         */
+        private static final int INITIAL_STACK_SIZE = 16;
+
+        private final PicoAst ast;
+
+        private final Map<String, Integer> registers = new HashMap<>();
+
+        private final List<String> variables = new ArrayList<>();
+
+        private final Map<Long, Integer> constantIndices = new HashMap<>();
+
+        private long[] constants = new long[16];
+
+        private int[] code = new int[64];
+
+        private int size;
+
+        /**
+         * The number of temporary registers in use.
+         */
+        private int temporaries;
+
+        /**
+         * The largest number of temporary registers that was in use at once.
+         */
+        private int maximumTemporaries;
+
+        private Compiler(PicoAst ast) {
+            this.ast = ast;
+        }
+
+        private PicoProgram compile() {
+            int program = this.ast.root();
+            if (program == PicoAst.NONE)
+                throw new IllegalArgumentException("The tree is empty");
+
+            // Declared variables come first, in the order of declaration
+            for (int child = this.ast.firstChild(program); child != PicoAst.NONE; child = this.ast.nextSibling(child))
+                if (this.ast.kind(child) == PicoAst.Kind.DECLARATION)
+                    this.register(child);
+
+            for (int child = this.ast.firstChild(program); child != PicoAst.NONE; child = this.ast.nextSibling(child))
+                if (this.ast.kind(child) == PicoAst.Kind.ASSIGNMENT)
+                    this.assignment(child);
+
+            // Temporaries are numbered after the variables, which are only all known by now
+            int base = this.variables.size();
+            for (int pc = 0; pc < this.size; pc += INSTRUCTION_SIZE) {
+                this.code[pc + 1] = this.relocate(this.code[pc + 1], base);
+                if (this.code[pc] != CONSTANT)
+                    this.code[pc + 2] = this.relocate(this.code[pc + 2], base);
+                this.code[pc + 3] = this.relocate(this.code[pc + 3], base);
+            }
+
+            return new PicoProgram(Arrays.copyOf(this.code, this.size),
+                    Arrays.copyOf(this.constants, this.constantIndices.size()),
+                    this.variables.toArray(new String[this.variables.size()]), base + this.maximumTemporaries);
+        }
+
+        /**
+         * Temporary registers are encoded as negative numbers until the number of variables is known.
+         */
+        private int relocate(int register, int base) {
+            return register < 0 ? base - register - 1 : register;
+        }
+
+        private int register(int node) {
+            String name = this.ast.value(node);
+            Integer register = this.registers.get(name);
+            if (register == null) {
+                register = this.variables.size();
+                this.registers.put(name, register);
+                this.variables.add(name);
+            }
+            return register;
+        }
+
+        private void assignment(int node) {
+            int target = this.ast.firstChild(node);
+            int variable = this.register(target);
+            int value = this.expression(this.ast.nextSibling(target));
+
+            // Store the result of the last instruction in the variable directly, rather than moving it there
+            if (value < 0 && this.size > 0 && this.code[this.size - INSTRUCTION_SIZE + 1] == value)
+                this.code[this.size - INSTRUCTION_SIZE + 1] = variable;
+            else
+                this.emit(MOVE, variable, value, 0);
+            this.temporaries = 0;
+        }
+
+        /**
+         * Emit the code of an expression. The left operands are descended iteratively with an explicit stack, as long
+         * chains such as {@code a + a + ... + a} nest arbitrarily deep on their left. Only the right operands, which
+         * nest as deep as the parentheses of the program, are compiled recursively.
+         *
+         * @return The register that contains its value, which is a variable or a temporary register.
+         */
+        private int expression(int node) {
+            // The operations on the left spine of the expression, each with the temporaries in use before it
+            int[] stack = new int[INITIAL_STACK_SIZE];
+            int size = 0;
+            int mark = this.temporaries;
+            for (PicoAst.Kind kind = this.ast.kind(node); kind == PicoAst.Kind.NEGATE || kind == PicoAst.Kind.ADD
+                    || kind == PicoAst.Kind.MULTIPLY; kind = this.ast.kind(node)) {
+                if (size == stack.length)
+                    stack = Arrays.copyOf(stack, size * 2);
+                stack[size++] = node;
+                node = this.ast.firstChild(node);
+            }
+
+            int value;
+            switch (this.ast.kind(node)) {
+                case VARIABLE:
+                    value = this.register(node);
+                    break;
+                case NUMBER:
+                    value = this.emit(CONSTANT, this.temporary(), this.constant(node), 0);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Node " + node + " is not an expression");
+            }
+
+            // Apply the operations from the innermost outwards, the value of the left operand stays in its register
+            while (size > 0) {
+                node = stack[--size];
+                PicoAst.Kind kind = this.ast.kind(node);
+                if (kind == PicoAst.Kind.NEGATE) {
+                    this.temporaries = mark;
+                    value = this.emit(NEGATE, this.temporary(), value, 0);
+                } else {
+                    int second = this.expression(this.ast.nextSibling(this.ast.firstChild(node)));
+                    this.temporaries = mark;
+                    value = this.emit(kind == PicoAst.Kind.ADD ? ADD : MULTIPLY, this.temporary(), value, second);
+                }
+            }
+            return value;
+        }
+
+        private int temporary() {
+            ++this.temporaries;
+            this.maximumTemporaries = Math.max(this.maximumTemporaries, this.temporaries);
+            return -this.temporaries;
+        }
+
+        private int constant(int node) {
+            long value = new BigInteger(this.ast.value(node)).longValue();
+            Integer index = this.constantIndices.get(value);
+            if (index == null) {
+                index = this.constantIndices.size();
+                if (index == this.constants.length)
+                    this.constants = Arrays.copyOf(this.constants, index * 2);
+                this.constants[index] = value;
+                this.constantIndices.put(value, index);
+            }
+            return index;
+        }
+
+        /**
+         * Append an instruction.
+         *
+         * @return The destination register of the instruction.
+         */
+        private int emit(int operation, int destination, int first, int second) {
+            if (this.size + INSTRUCTION_SIZE > this.code.length)
+                this.code = Arrays.copyOf(this.code, this.code.length * 2);
+            this.code[this.size] = operation;
+            this.code[this.size + 1] = destination;
+            this.code[this.size + 2] = first;
+            this.code[this.size + 3] = second;
+            this.size += INSTRUCTION_SIZE;
+            return destination;
+        }
+    }
+}
@@ -2,7 +2,13 @@ package regex;
 
 import regex.PicoTokenizer.Token;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Created by Maurice on 6-5-2016.
@@ -10,9 +16,39 @@ import java.io.InputStream;
 public class PicoRec {
 
     /**
-     * The tokenizer used by this recognizer.
+     * The tokens that are recognized by this recognizer.
      */
-    private PicoTokenizer tokenizer;
+    private TokenCursor tokenizer;
+
+    /**
+     * The diagnostics that are collected when recovering from errors, or null if recognition stops at the first error.
+     */
+    private List<Diagnostic> diagnostics;
+
+    /**
+     * The first error that was encountered, or null if there was none.
+     */
+    private Diagnostic error;
+
+    /**
+     * The input as a whole, or null if it is read from a stream or file.
+     */
+    private CharSequence input;
+
+    /**
+     * The tree that is built while recognizing, or null if only recognizing.
+     */
+    private PicoAst ast;
+
+    /**
+     * The node that was built last for an expression.
+     */
+    private int node = PicoAst.NONE;
+
+    /**
+     * The last declaration or assignment that was added to the program.
+     */
+    private int lastChild = PicoAst.NONE;
 
     /**
      * Creates a new {@code PicoRecognizer} that aims to recognize the content represented by the {@code InputStream} as
@@ -24,6 +60,27 @@ public class PicoRec {
         this.tokenizer = new PicoTokenizer(stream);
     }
 
+    /**
+     * Creates a new {@code PicoRecognizer} that aims to recognize the content read from the {@code Reader} as a Pico
+     * program. The content is read incrementally, so it doesn't need to fit in memory.
+     *
+     * @param reader The reader which content should be inspected as being a Pico program.
+     */
+    public PicoRec(Reader reader) {
+        this.tokenizer = new PicoTokenizer(reader);
+    }
+
+    /**
+     * Creates a new {@code PicoRecognizer} that aims to recognize the content of the given file as a Pico program. The
+     * file is memory mapped and scanned without copying its content.
+     *
+     * @param path The file which content should be inspected as being a Pico program.
+     * @throws IOException When the file couldn't be opened or mapped.
+     */
+    public PicoRec(Path path) throws IOException {
+        this.tokenizer = new PicoTokenizer(path);
+    }
+
     /**
      * Creates a new {@code PicoRecognizer} that aims to recognize the given string as a Pico program. To see whether
      * the given string is a Pico program, call {@code recognize}.
@@ -32,21 +89,44 @@ public class PicoRec {
      */
     public PicoRec(String string) {
         this.tokenizer = new PicoTokenizer(string);
+        this.input = string;
+    }
+
+    /**
+     * Creates a new {@code PicoRecognizer} that aims to recognize the tokens in the given buffer as a Pico program.
+     * This doesn't tokenize the input again, so the same buffer can be recognized any number of times.
+     *
+     * @param tokens The tokens that should be recognized as a Pico program.
+     */
+    public PicoRec(TokenBuffer tokens) {
+        this.tokenizer = tokens.cursor();
+        this.input = tokens.input();
+    }
+
+    /**
+     * Creates a new {@code PicoRecognizer} that recognizes the tokens of the given cursor, from the token it rests on.
+     * This is used to recognize parts of a program through {@code checkHeader} and {@code checkStatement}.
+     *
+     * @param tokenizer The tokens that should be recognized.
+     */
+    PicoRec(TokenCursor tokenizer) {
+        this.tokenizer = tokenizer;
     }
 
     /**
      * Recognize a program, following this definition:
      * {@code PROGRAM ::= "begin" DECLS "|" (STATEMENT ";")* "end"}
      *
-     * @throws ParseException When the input couldn't be parsed.
+     * @return {@code true} if the program was recognized, {@code false} otherwise.
      */
-    private void recognizeProgram() throws ParseException {
+    private boolean recognizeProgram() {
+
+        this.node(PicoAst.Kind.PROGRAM);
+        if (!(this.match(Token.Type.BEGIN) && this.recognizeDeclarations() && this.match(Token.Type.DECLARATIONS_END))
+                && !this.recover())
+            return false;
 
-        this.match(Token.Type.BEGIN);
-        this.recognizeDeclarations();
-        this.match(Token.Type.DECLARATIONS_END);
-        this.recognizeStatements();
-        this.match(Token.Type.END);
+        return this.recognizeStatements() && this.match(Token.Type.END);
 
     }
 
@@ -54,135 +134,455 @@ public class PicoRec {
      * Recognize a single declaration, following this definition:
      * {@code ID ","}.
      *
-     * @throws ParseException When the input couldn't be parsed.
+     * @return {@code true} if the declaration was recognized, {@code false} otherwise.
      */
-    private void recognizeDeclaration() throws ParseException {
-        this.match(Token.Type.IDENTIFIER);
-        this.match(Token.Type.DECLARATION_END);
+    private boolean recognizeDeclaration() {
+        this.addToProgram(this.node(PicoAst.Kind.DECLARATION));
+        return this.match(Token.Type.IDENTIFIER) && this.match(Token.Type.DECLARATION_END);
     }
 
     /**
      * Recognize the declaration header, following this definition:
      * {@code DECLARATION ::= "declare" (ID ",")*}
      *
-     * @throws ParseException When the input couldn't be parsed.
+     * @return {@code true} if the declarations were recognized, {@code false} otherwise.
      */
-    private void recognizeDeclarations() throws ParseException {
-        this.match(Token.Type.DECLARE);
+    private boolean recognizeDeclarations() {
+        if (!this.match(Token.Type.DECLARE))
+            return false;
 
-        while (this.tokenizer.peek().type != Token.Type.DECLARATIONS_END)
-            this.recognizeDeclaration();
+        while (this.tokenizer.type() != Token.Type.DECLARATIONS_END)
+            if (!this.recognizeDeclaration())
+                return false;
+        return true;
     }
 
     /**
      * Recognize a single statement, following this definition:
      * {@code STATEMENT ::= ID ":=" EXP ";" }
-     * @throws ParseException
+     *
+     * @return {@code true} if the statement was recognized, {@code false} otherwise.
      */
-    private void recognizeStatement() throws ParseException {
-        this.match(Token.Type.IDENTIFIER);
-        this.match(Token.Type.ASSIGN);
-        this.recognizeExpression();
-        this.match(Token.Type.STATEMENT_END);
+    private boolean recognizeStatement() {
+        int variable = this.node(PicoAst.Kind.VARIABLE);
+        if (!this.match(Token.Type.IDENTIFIER))
+            return false;
+
+        int assignment = this.node(PicoAst.Kind.ASSIGNMENT);
+        if (!(this.match(Token.Type.ASSIGN) && this.recognizeExpression()))
+            return false;
+
+        this.addToProgram(this.children(assignment, variable, this.node));
+        return this.match(Token.Type.STATEMENT_END);
     }
 
     /**
      * Recognize multiple statements, following this definition:
      * {@code STATEMENT*}
+     * When recovering from errors, a statement that isn't recognized is skipped after it is reported.
      *
-     * @throws ParseException When the input couldn't be parsed.
+     * @return {@code true} if the statements were recognized, {@code false} otherwise.
      */
-    private void recognizeStatements() throws ParseException {
-        while (this.tokenizer.peek().type != Token.Type.END)
-            this.recognizeStatement();
+    private boolean recognizeStatements() {
+        while (this.tokenizer.type() != Token.Type.END)
+            if (!this.recognizeStatement() && !this.recover())
+                return false;
+        return true;
     }
 
 
     /**
      * Recognize an expression, following these definitions:
-     * {@code EXP ::= ID}
-     * {@code EXP ::= NAT}
-     * {@code EXP ::= "-" EXP}
-     * {@code EXP ::= MULT_EXP}
-     * {@code EXP ::= ADD_EXP}
-     * {@code EXP ::= "(" EXP ")"}
+     * {@code EXP ::= TERM ("+" TERM)*}
+     * Together with {@code recognizeTerm} and {@code recognizeUnary} this recognizes the same expressions as
+     * {@code EXP ::= ("-" EXP | "(" EXP ")" | ID | NAT) (("+" | "*") EXP)?}, but such that the tree that is built
+     * follows the conventional precedence: negation binds tightest, multiplication binds tighter than addition and
+     * both are left associative.
+     *
+     * @return {@code true} if the expression was recognized, {@code false} otherwise.
+     */
+    private boolean recognizeExpression() {
+        if (!this.recognizeTerm())
+            return false;
+
+        while (this.tokenizer.type() == Token.Type.ADD) {
+            int left = this.node;
+            int add = this.node(PicoAst.Kind.ADD);
+            this.tokenizer.advance();
+            if (!this.recognizeTerm())
+                return false;
+            this.node = this.children(add, left, this.node);
+        }
+        return true;
+    }
+
+    /**
+     * Recognize a term, following this definition:
+     * {@code TERM ::= UNARY ("*" UNARY)*}
+     *
+     * @return {@code true} if the term was recognized, {@code false} otherwise.
+     */
+    private boolean recognizeTerm() {
+        if (!this.recognizeUnary())
+            return false;
+
+        while (this.tokenizer.type() == Token.Type.MULTIPLY) {
+            int left = this.node;
+            int multiply = this.node(PicoAst.Kind.MULTIPLY);
+            this.tokenizer.advance();
+            if (!this.recognizeUnary())
+                return false;
+            this.node = this.children(multiply, left, this.node);
+        }
+        return true;
+    }
+
+    /**
+     * Recognize an operand, following these definitions:
+     * {@code UNARY ::= ID}
+     * {@code UNARY ::= NAT}
+     * {@code UNARY ::= "-" UNARY}
+     * {@code UNARY ::= "(" EXP ")"}
      *
-     * @throws ParseException When the input couldn't be parsed.
+     * @return {@code true} if the operand was recognized, {@code false} otherwise.
      */
-    private void recognizeExpression() throws ParseException {
+    private boolean recognizeUnary() {
+        Token.Type type = this.tokenizer.type();
+        if (type == null)
+            return this.fail(Token.Type.OPEN);
 
-        // Obtain the next token and see what type of expression the left hand is
-        Token t = this.tokenizer.next();
-        switch (t.type) {
+        switch (type) {
 
             case OPEN:
-                this.recognizeExpression();
-                this.match(Token.Type.CLOSE);
-                break;
+                this.tokenizer.advance();
+                return this.recognizeExpression() && this.match(Token.Type.CLOSE);
             case MINUS:
-                this.recognizeExpression();
-                break;
+                int negate = this.node(PicoAst.Kind.NEGATE);
+                this.tokenizer.advance();
+                if (!this.recognizeUnary())
+                    return false;
+                this.node = this.children(negate, this.node, PicoAst.NONE);
+                return true;
             case IDENTIFIER:
-                break;
+                this.node = this.node(PicoAst.Kind.VARIABLE);
+                this.tokenizer.advance();
+                return true;
             case NATNUMBER:
-                break;
+                this.node = this.node(PicoAst.Kind.NUMBER);
+                this.tokenizer.advance();
+                return true;
             default:
-                throw new MisMatchException(Token.Type.OPEN, t.type);
+                return this.fail(Token.Type.OPEN);
         }
 
-        // See if there is a right hand as well (which is + or * followed by another expression)
-        switch (this.tokenizer.peek().type) {
-            case ADD:
-                this.match(Token.Type.ADD);
-                this.recognizeExpression();
-                break;
-            case MULTIPLY:
-                this.match(Token.Type.MULTIPLY);
-                this.recognizeExpression();
-                break;
+    }
+
+    /**
+     * Add a node for the current token to the tree, if a tree is being built.
+     *
+     * @param kind The kind of node.
+     * @return The index of the node, or {@code PicoAst.NONE} if no tree is being built.
+     */
+    private int node(PicoAst.Kind kind) {
+        if (this.ast == null)
+            return PicoAst.NONE;
+        long start = this.tokenizer.start();
+        return this.ast.add(kind, (int) start, (int) (this.tokenizer.end() - start));
+    }
+
+    /**
+     * Set the children of a node, if a tree is being built.
+     *
+     * @param parent The node of which to set the children.
+     * @param first  The first child.
+     * @param second The second child, or {@code PicoAst.NONE} if there is only one.
+     * @return The parent.
+     */
+    private int children(int parent, int first, int second) {
+        if (this.ast != null) {
+            this.ast.setFirstChild(parent, first);
+            this.ast.setNextSibling(first, second);
         }
+        return parent;
+    }
 
+    /**
+     * Add a declaration or assignment to the children of the program, if a tree is being built.
+     *
+     * @param child The node to add.
+     */
+    private void addToProgram(int child) {
+        if (this.ast == null)
+            return;
+
+        if (this.lastChild == PicoAst.NONE)
+            this.ast.setFirstChild(this.ast.root(), child);
+        else
+            this.ast.setNextSibling(this.lastChild, child);
+        this.lastChild = child;
     }
 
     /**
-     * Recognize the earlier defined InputStream as a valid Pico program.
+     * Recognize the earlier defined input as a valid Pico program.
      *
-     * @return {@code true} if the defined InputStream is a valid Pico program, {@code false} otherwise.
+     * @throws ParseException When the input isn't a valid Pico program. Its cause describes the first error.
      */
     public synchronized void recognize() throws ParseException{
+        if (!this.recognizeProgram())
+            throw this.error.toException(this);
+    }
+
+    /**
+     * Recognize the earlier defined input as a valid Pico program and build its abstract syntax tree.
+     *
+     * @param ast The arena in which to build the tree. Any tree it contains is discarded, such that the same arena can
+     *            be reused for one program after another.
+     * @return The given arena, containing the tree of the program.
+     * @throws ParseException When the input isn't a valid Pico program. Its cause describes the first error.
+     */
+    public synchronized PicoAst parse(PicoAst ast) throws ParseException {
+        ast.reset(this.input);
+        this.ast = ast;
+        this.lastChild = PicoAst.NONE;
+        try {
+            this.recognize();
+            return ast;
+        } finally {
+            this.ast = null;
+        }
+    }
+
+    /**
+     * Recognize the earlier defined input as a valid Pico program without throwing an exception when it isn't. This
+     * stops at the first error, like {@code recognize} does.
+     *
+     * @return {@code Result.OK} if the input is a valid Pico program, or a result describing the first error
+     * otherwise.
+     */
+    public synchronized Result check() {
+        return this.recognizeProgram() ? Result.OK : new Result(this.error);
+    }
+
+    /**
+     * Recognize the header of a program, which is everything up to and including the {@code "|"}.
+     *
+     * @return {@code Result.OK} if the header was recognized, or a result describing the first error otherwise.
+     */
+    Result checkHeader() {
+        return this.match(Token.Type.BEGIN) && this.recognizeDeclarations() && this.match(Token.Type.DECLARATIONS_END)
+                ? Result.OK : new Result(this.error);
+    }
+
+    /**
+     * Recognize a single statement. As a statement ends at the first {@code ";"}, its result doesn't depend on any
+     * token after that.
+     *
+     * @return {@code Result.OK} if the statement was recognized, or a result describing the first error otherwise.
+     */
+    Result checkStatement() {
+        return this.recognizeStatement() ? Result.OK : new Result(this.error);
+    }
+
+    /**
+     * Recognize the earlier defined input as a valid Pico program, reporting all errors rather than only the first.
+     * After an error the recognizer skips ahead to the next {@code ";"}, {@code "|"} or {@code "end"} and continues
+     * from there, such that all errors are found in a single pass.
+     *
+     * @return The errors that were found, in the order they occur in the input. The list is empty if the input is a
+     * valid Pico program.
+     */
+    public synchronized List<Diagnostic> recognizeAll() {
+        this.diagnostics = new ArrayList<>();
         this.recognizeProgram();
+        return Collections.unmodifiableList(this.diagnostics);
     }
 
 
     /**
-     * Checks whether the next character is any of the given characters
+     * Checks whether the current token is of the expected type, and if so moves on to the next token.
      *
-     * @param expected A set of characters that are expected.
-     *                 characters, {@code false} otherwise.
+     * @param expected The type of token that is expected.
+     * @return {@code true} if the current token is of the expected type, {@code false} otherwise.
      */
-    private void match(Token.Type expected) throws ParseException {
-        try {
-            Token actual = this.tokenizer.next();
-            if (actual.type != expected)
-                throw new MisMatchException(expected, actual.type);
-        } catch (Exception e) {
-            throw new ParseException(e);
+    private boolean match(Token.Type expected) {
+        if (this.tokenizer.type() != expected)
+            return this.fail(expected);
+
+        this.tokenizer.advance();
+        return true;
+    }
+
+    /**
+     * Report that the current token is not of the expected type.
+     *
+     * @param expected The type of token that was expected.
+     * @return Always {@code false}, such that the failure can be passed on.
+     */
+    private boolean fail(Token.Type expected) {
+        Diagnostic diagnostic = new Diagnostic(this.tokenizer.start(), this.tokenizer.line(), this.tokenizer.column(),
+                expected, this.tokenizer.type());
+        if (this.error == null)
+            this.error = diagnostic;
+        if (this.diagnostics != null)
+            this.diagnostics.add(diagnostic);
+        return false;
+    }
+
+    /**
+     * Recover from an error by skipping tokens up to and including the next {@code ";"} or {@code "|"}, or up to the
+     * next {@code "end"}. This is only done when recovering is enabled.
+     *
+     * @return {@code true} if recognition can continue, {@code false} if recovering isn't enabled or the end of the
+     * input was reached.
+     */
+    private boolean recover() {
+        if (this.diagnostics == null)
+            return false;
+
+        for (Token.Type type = this.tokenizer.type(); type != null; type = this.tokenizer.type()) {
+            if (type == Token.Type.END)
+                return true;
+
+            this.tokenizer.advance();
+            if (type == Token.Type.STATEMENT_END || type == Token.Type.DECLARATIONS_END)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * The outcome of recognizing an input, obtained without throwing an exception.
+     */
+    public static class Result {
+
+        /**
+         * The result of an input that is a valid Pico program.
+         */
+        public static final Result OK = new Result(null);
+
+        /**
+         * The kind of outcome.
+         */
+        public final Kind kind;
+
+        /**
+         * The first error that was found, or null if the input is a valid Pico program.
+         */
+        public final Diagnostic error;
+
+        Result(Diagnostic error) {
+            this.error = error;
+            this.kind = error == null ? Kind.OK : error.actual == null ? Kind.END_OF_INPUT : Kind.MISMATCH;
+        }
+
+        /**
+         * Indicates whether the input is a valid Pico program.
+         *
+         * @return {@code true} if no error was found, {@code false} otherwise.
+         */
+        public boolean isOk() {
+            return this.error == null;
+        }
+
+        @Override
+        public String toString() {
+            return this.isOk() ? "OK" : this.error.toString();
+        }
+
+        /**
+         * The kinds of outcome of recognizing an input.
+         */
+        public enum Kind {
+            /**
+             * The input is a valid Pico program.
+             */
+            OK,
+            /**
+             * A token was found that is not of the expected type.
+             */
+            MISMATCH,
+            /**
+             * The end of the input was reached while another token was expected.
+             */
+            END_OF_INPUT
+        }
+    }
+
+    /**
+     * An error that was found while recognizing, which consists of the location at which a token of a certain type
+     * was expected and the type of the token that was found instead.
+     */
+    public static class Diagnostic {
+
+        /**
+         * The offset in the input at which the error occurred.
+         */
+        public final long offset;
+
+        /**
+         * The line at which the error occurred, counting from 1.
+         */
+        public final int line;
+
+        /**
+         * The column at which the error occurred, counting from 1.
+         */
+        public final int column;
+
+        /**
+         * The type of token that was expected.
+         */
+        public final Token.Type expected;
+
+        /**
+         * The type of token that was found, or null if the end of the input was reached.
+         */
+        public final Token.Type actual;
+
+        Diagnostic(long offset, int line, int column, Token.Type expected, Token.Type actual) {
+            this.offset = offset;
+            this.line = line;
+            this.column = column;
+            this.expected = expected;
+            this.actual = actual;
+        }
+
+        /**
+         * Convert this diagnostic to the exception that is thrown by {@code recognize}.
+         */
+        private ParseException toException(PicoRec recognizer) {
+            return new ParseException(this.actual == null
+                    ? new PicoTokenizer.NoNextTokenException()
+                    : recognizer.new MisMatchException(this.expected, this.actual));
+        }
+
+        @Override
+        public String toString() {
+            return this.line + ":" + this.column + ": Expected \"" + this.expected + "\" but "
+                    + (this.actual == null ? "reached the end of the input" : "received \"" + this.actual + "\"");
         }
     }
 
+    /**
+     * Exception that indicates that the input isn't a valid Pico program. No stack trace is recorded for it, as it
+     * describes a problem with the input rather than with the program; its cause describes the error.
+     */
     public static class ParseException extends RuntimeException {
 
         private ParseException(Exception cause) {
-            super(cause);
+            super(cause.toString(), cause, false, false);
         }
 
     }
 
 
+    /**
+     * Exception that indicates that a token is not of the expected type. No stack trace is recorded for it.
+     */
     public class MisMatchException extends RuntimeException {
 
         private MisMatchException(Token.Type expected, Token.Type received) {
-            super("Expected \"" + expected + "\" but received \"" + received + "\"");
+            super("Expected \"" + expected + "\" but received \"" + received + "\"", null, false, false);
         }
     }
 }
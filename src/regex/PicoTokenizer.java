@@ -1,148 +1,240 @@
 package regex;
 
-import dk.brics.automaton.AutomatonMatcher;
+import dk.brics.automaton.Automaton;
 import dk.brics.automaton.RegExp;
-import dk.brics.automaton.RunAutomaton;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
 
 /**
  * Tokenizer for the Pico language.
+ * <p>
+ * The tokenizer acts as a cursor that rests on the current token. The cursor methods ({@code advance}, {@code type},
+ * {@code start}, {@code end} and {@code contentEquals}) don't allocate anything per token. The {@code Token} based
+ * methods ({@code next} and {@code peek}) are built on top of them for callers that need the tokens as objects.
+ * </p>
  */
-public class PicoTokenizer {
+public class PicoTokenizer implements TokenCursor {
 
     /**
-     * Regular expression that matches all tokens of the Pico language
+     * All token types, indexed by the tag of the automaton state that accepts them.
      */
-    private static final String REGEX = "(begin)|(end)|(declare)|,|\\||;|(:=)|\\(|\\)|\\-|\\+|\\*|([a-z][a-z0-9]*)|([1-9][0-9]*)|0";
-    private final AutomatonMatcher matcher;
+    static final Token.Type[] TYPES = Token.Type.values();
     /**
-     * The currently read token value. It may depend on the value of the next read token what the type of this token
-     * is.
+     * Key under which the automaton that matches all tokens of the Pico language is registered.
      */
-    private String current;
+    private static final String AUTOMATON_KEY = automatonKey();
     /**
-     * The next read token value. It may not yet be known what type of token this is, as there is no look ahead for it.
-     * .
+     * The scanner that finds the consecutive token values in the input.
      */
-    private String next;
+    private final TokenScanner scanner;
     /**
-     * The Token type of the current
+     * The type of the token the cursor rests on, or null if all tokens have been read.
      */
-    private Token.Type typeOfCurrent;
-
-    public PicoTokenizer(String inspectedString) {
-        // Create a matcher on the given string
-        this.matcher = new RunAutomaton(new RegExp(REGEX).toAutomaton()).newMatcher(inspectedString);
+    private Token.Type type;
+    /**
+     * The current token as object, which is only created when it is requested through {@code peek} or {@code next}.
+     */
+    private Token token;
 
-        // Shift twice to obtain a token for both the current value and the next value.
-        this.shiftTokens();
-        this.shiftTokens();
+    public PicoTokenizer(CharSequence inspectedString) {
+        // Scan the given characters, using the automaton that is shared by all tokenizers
+        this(new TokenScanner.CharSequenceScanner(automaton(), inspectedString));
     }
 
+    /**
+     * Creates a tokenizer that reads the stream incrementally. Each byte is interpreted as a single character.
+     *
+     * @param inputStream The stream to tokenize.
+     */
     public PicoTokenizer(InputStream inputStream) {
-        this(readContent(inputStream));
+        this(new InputStreamReader(inputStream, StandardCharsets.ISO_8859_1));
     }
 
     /**
-     * Read the contents of a stream into a String.
+     * Creates a tokenizer that reads the channel incrementally. Each byte is interpreted as a single character.
      *
-     * @param stream The stream from which to read the content
-     * @return
+     * @param channel The channel to tokenize.
      */
-    private static String readContent(InputStream stream) {
-        StringBuilder builder = new StringBuilder();
-
-        try {
-            for (int c = stream.read(); c != -1; c = stream.read())
-                builder.append((char) c);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    public PicoTokenizer(ReadableByteChannel channel) {
+        this(Channels.newReader(channel, StandardCharsets.ISO_8859_1.newDecoder(), -1));
+    }
 
-        return builder.toString();
+    /**
+     * Creates a tokenizer that reads the reader incrementally. Only a fixed size buffer of the input is kept in memory,
+     * such that arbitrarily large inputs can be tokenized in constant memory.
+     *
+     * @param reader The reader to tokenize.
+     */
+    public PicoTokenizer(Reader reader) {
+        this(reader, TokenScanner.ReaderScanner.DEFAULT_BUFFER_SIZE);
     }
 
     /**
-     * Obtain the next token.
+     * Creates a tokenizer that reads the reader incrementally, using a buffer of the given size.
      *
-     * @return The next Token
-     * @throws NoNextTokenException If there are no more tokens to read.
+     * @param reader     The reader to tokenize.
+     * @param bufferSize The number of characters that are buffered.
      */
-    public Token next() throws NoNextTokenException {
+    public PicoTokenizer(Reader reader, int bufferSize) {
+        this(new TokenScanner.ReaderScanner(automaton(), reader, bufferSize));
+    }
 
-        Token token = this.tokenizeCurrent();
-        this.shiftTokens();
-        return token;
+    /**
+     * Creates a tokenizer that scans the file directly from a memory mapping, without copying its content. Each byte
+     * is interpreted as a single character. Files larger than 2 GB are mapped in consecutive segments.
+     *
+     * @param path The file to tokenize.
+     * @throws IOException When the file couldn't be opened or mapped.
+     */
+    public PicoTokenizer(Path path) throws IOException {
+        this(path, TokenScanner.MappedScanner.DEFAULT_SEGMENT_SIZE);
     }
 
     /**
-     * Peeks at the value that will be returned by next. The next call to next will yield a Token that is equal to the
-     * token returned by this method. The result returned by {@code peek} will not change between two calls to {@code
-     * next}.
+     * Creates a tokenizer that scans the file from a memory mapping, mapping at most the given number of bytes at once.
      *
-     * @return The token that lies one ahead of the current token.
+     * @param path        The file to tokenize.
+     * @param segmentSize The maximum number of bytes that is mapped at once.
+     * @throws IOException When the file couldn't be opened or mapped.
      */
-    public Token peek() throws NoNextTokenException {
-        return this.tokenizeCurrent();
+    PicoTokenizer(Path path, int segmentSize) throws IOException {
+        this(new TokenScanner.MappedScanner(automaton(), path, segmentSize));
+    }
+
+    private PicoTokenizer(TokenScanner scanner) {
+        this.scanner = scanner;
+
+        // Move the cursor onto the first token
+        this.advance();
     }
 
     /**
-     * Tokenizes the current value. If the current value is already tokenized (i.e. {@code typeOfCurrent} is not null)
-     * then a new token is created using the stored type of the current value. If the value was null then the value for
-     * {@code typeOfCurrent} is determined, after which it is returned as a token.
-     * <p>
-     * <b> Note that for each call a new Token is constructed. As such it is not possible to use {@code ==} to
-     * determine
-     * equality. Use {@code equals} instead.</b>
+     * Obtain the automaton that recognizes all Pico tokens. It is compiled (or loaded when precompiled) only once and
+     * then shared by all tokenizers.
      *
-     * @return The created Token.
+     * @return The shared automaton.
      */
-    private Token tokenizeCurrent() {
-        if (this.current == null)
-            throw new NoNextTokenException();
+    static TaggedAutomaton automaton() {
+        return AutomatonRegistry.get(AUTOMATON_KEY, TaggedAutomaton.class, PicoTokenizer::compileAutomaton);
+    }
+
+    /**
+     * Compile the automaton that matches all tokens of the Pico language. Each accepting state is tagged with the
+     * ordinal of the {@code Token.Type} it accepts. When a value is represented by multiple types, the type that is
+     * defined first in {@code Token.Type} is used, such that keywords take priority over identifiers.
+     *
+     * @return The compiled automaton.
+     */
+    private static TaggedAutomaton compileAutomaton() {
+        Automaton[] patterns = new Automaton[TYPES.length];
+        for (int i = 0; i < TYPES.length; ++i)
+            patterns[i] = TYPES[i].isKeyword()
+                    ? Automaton.makeString(TYPES[i].representation)
+                    : new RegExp(TYPES[i].representation).toAutomaton();
+        return new TaggedAutomaton(patterns);
+    }
 
-        if (this.typeOfCurrent == null)
-            this.typeOfCurrent = this.determineTypeOfCurrent();
+    /**
+     * Determine the key under which the automaton is registered. It is derived from the token types such that a
+     * precompiled automaton of a different version of the types is never used.
+     */
+    private static String automatonKey() {
+        StringBuilder builder = new StringBuilder(PicoTokenizer.class.getName());
+        for (Token.Type type : TYPES)
+            builder.append(' ').append(type.name()).append('=').append(type.representation);
+        return builder.toString();
+    }
 
-        return new Token(this.typeOfCurrent, this.current);
+    /**
+     * Makes sure the shared automaton is available, such that the first tokenizer that is constructed doesn't pay
+     * for compiling it. Call this during startup to reduce the latency of the first request.
+     */
+    public static void preload() {
+        automaton();
     }
 
     /**
-     * Shifts the current and next tokens such that the current token becomes the old next token, while the next token
-     * becomes a new value read from the {@code InputStream}.
+     * Stores the shared automaton in the given classpath directory such that it is loaded instead of compiled.
+     *
+     * @param classpathRoot The root directory of the classpath in which to store the automaton.
+     * @throws IOException When the automaton could not be written.
      */
-    private void shiftTokens() {
-        this.current = this.next;
-        this.next = this.readNextToken();
-        // Reset the current type
-        this.typeOfCurrent = null;
+    static void precompile(File classpathRoot) throws IOException {
+        AutomatonRegistry.store(classpathRoot, AUTOMATON_KEY, automaton());
+    }
+
+    @Override
+    public boolean advance() {
+        this.token = null;
+        this.type = this.scanner.find() ? TYPES[this.scanner.tag()] : null;
+        return this.type != null;
+    }
+
+    @Override
+    public Token.Type type() {
+        return this.type;
+    }
+
+    @Override
+    public long start() {
+        return this.scanner.start();
+    }
+
+    @Override
+    public long end() {
+        return this.scanner.end();
+    }
+
+    @Override
+    public int line() {
+        return this.scanner.line();
+    }
+
+    @Override
+    public int column() {
+        return this.scanner.column();
+    }
+
+    @Override
+    public boolean contentEquals(CharSequence chars) {
+        return this.type != null && this.scanner.contentEquals(chars);
     }
 
     /**
-     * Read the next token.
+     * Obtain the next token.
      *
-     * @return The next token or null if there is no such token.
+     * @return The next Token
+     * @throws NoNextTokenException If there are no more tokens to read.
      */
-    private String readNextToken() {
-        return this.matcher.find() ? this.matcher.group() : null;
+    public Token next() throws NoNextTokenException {
+
+        Token token = this.peek();
+        this.advance();
+        return token;
     }
 
     /**
-     * Determine the {@code Token.Type} of the current string token. This checks whether the current token string is
-     * equal to the representation of any of the {@code Token.Type} elements. The elements are inspected in the order
-     * they are defined in {@code Token.Type}.
+     * Peeks at the value that will be returned by next. The next call to next will yield the same Token as the one
+     * returned by this method. The result returned by {@code peek} will not change between two calls to {@code next}.
      *
-     * @return The determined {@code Token.Type}.
-     * @throws NoMatchingTokenException If no {@code Token.Type} element exists that matches the current token string.
+     * @return The token that lies one ahead of the current token.
      */
-    private Token.Type determineTypeOfCurrent() {
-        for (Token.Type type : Token.Type.values())
-            if (type.represents(this.current))
-                return type;
+    public Token peek() throws NoNextTokenException {
+        if (this.type == null)
+            throw new NoNextTokenException();
 
-        throw new NoMatchingTokenException(this.current);
+        if (this.token == null)
+            this.token = new Token(this.type, this.scanner.group());
+        return this.token;
     }
 
     /**
@@ -233,6 +325,11 @@ public class PicoTokenizer {
              */
             private String representation;
             private boolean isKeyword;
+            /**
+             * The compiled representation of a non-keyword, such that it isn't compiled again for every call to
+             * {@code represents}.
+             */
+            private Pattern pattern;
 
             /**
              * Keyword constructor. This allows for a keyword to be set, meaning that this type is indicated by the
@@ -244,6 +341,7 @@ public class PicoTokenizer {
             Type(String representation, boolean isKeyword) {
                 this.representation = representation;
                 this.isKeyword = isKeyword;
+                this.pattern = isKeyword ? null : Pattern.compile(representation);
             }
 
             /**
@@ -294,23 +392,19 @@ public class PicoTokenizer {
              * @return A boolean following the rules as indicated above.
              */
             public boolean represents(String string) {
-                return this.isKeyword ? representation.equals(string) : string.matches(representation);
+                return this.isKeyword ? representation.equals(string) : pattern.matcher(string).matches();
             }
         }
     }
 
     /**
-     * Exception that indicates that there are no more tokens to read.
+     * Exception that indicates that there are no more tokens to read. No stack trace is recorded for it, as it marks
+     * the regular end of the input.
      */
     public static class NoNextTokenException extends RuntimeException {
-    }
 
-    /**
-     * Exception that indicates that the value that was read can not be converted to a token
-     */
-    public static class NoMatchingTokenException extends RuntimeException {
-        private NoMatchingTokenException(String value) {
-            super("There is no token that matches the value \"" + value + "\"");
+        public NoNextTokenException() {
+            super(null, null, false, false);
         }
     }
 }
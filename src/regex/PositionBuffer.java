@@ -0,0 +1,145 @@
+package regex;
+
+import java.util.Arrays;
+
+/**
+ * Ascending positions in a sequence that is edited, such as the offsets at which lines start or the indices of the
+ * tokens at which statements start. The positions are kept in a gap buffer: the positions before the gap are stored as
+ * they are, and those after the gap relative to the end of the sequence. An edit replaces the positions at the gap,
+ * which leaves the positions after it valid without updating them, so it takes time proportional to the number of
+ * positions it replaces and the number of positions between it and the previous edit.
+ */
+final class PositionBuffer {
+
+    /**
+     * The positions. Those before the gap are stored as they are, those after the gap relative to {@code end}.
+     */
+    private int[] positions;
+
+    /**
+     * The number of positions.
+     */
+    private int size;
+
+    /**
+     * The index of the first position after the gap.
+     */
+    private int gap;
+
+    /**
+     * The end of the sequence, such as its length.
+     */
+    private int end;
+
+    /**
+     * Creates an empty buffer.
+     *
+     * @param capacity The number of positions for which space is reserved.
+     * @param end      The end of the sequence.
+     */
+    PositionBuffer(int capacity, int end) {
+        this.positions = new int[Math.max(capacity, 1)];
+        this.end = end;
+    }
+
+    /**
+     * Obtain the number of positions.
+     *
+     * @return The number of positions in the buffer.
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Obtain the position at the given index.
+     *
+     * @param index The index of the position.
+     * @return The position.
+     */
+    int get(int index) {
+        if (index < 0 || index >= this.size)
+            throw new IndexOutOfBoundsException("Index " + index + " is not within [0, " + this.size + ")");
+        return index < this.gap ? this.positions[index]
+                : this.positions[index + this.positions.length - this.size] + this.end;
+    }
+
+    /**
+     * Find the first position that is at least the given position.
+     *
+     * @param position The position to search for.
+     * @return The index of the first position that is at least the given position, or the size of the buffer if
+     * there is no such position.
+     */
+    int search(int position) {
+        int low = 0;
+        int high = this.size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.get(middle) < position)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Append a position.
+     *
+     * @param position The position, which is at least the last position in the buffer.
+     */
+    void add(int position) {
+        this.moveGap(this.size);
+        if (this.size == this.positions.length)
+            this.grow(this.size + 1);
+        this.positions[this.size++] = position;
+        this.gap = this.size;
+    }
+
+    /**
+     * Replace a range of positions after the sequence was edited. The positions after the range are moved along with
+     * the end of the sequence.
+     *
+     * @param from     The index of the first position to replace.
+     * @param to       The index after the last position to replace.
+     * @param delta    The number by which the end of the sequence moved.
+     * @param inserted The positions to insert instead, in the edited sequence.
+     */
+    void replace(int from, int to, int delta, PositionBuffer inserted) {
+        this.moveGap(from);
+        this.size -= to - from;
+        this.end += delta;
+
+        int count = inserted.size;
+        if (this.positions.length - this.size < count)
+            this.grow(this.size + count);
+        for (int i = 0; i < count; ++i)
+            this.positions[this.gap + i] = inserted.get(i);
+        this.gap += count;
+        this.size += count;
+    }
+
+    /**
+     * Move the gap such that it starts at the given index.
+     */
+    private void moveGap(int index) {
+        int shift = this.positions.length - this.size;
+        if (index < this.gap) {
+            for (int i = this.gap - 1; i >= index; --i)
+                this.positions[i + shift] = this.positions[i] - this.end;
+        } else {
+            for (int i = this.gap; i < index; ++i)
+                this.positions[i] = this.positions[i + shift] + this.end;
+        }
+        this.gap = index;
+    }
+
+    private void grow(int minimum) {
+        int capacity = Math.max(minimum, this.positions.length * 2);
+        int[] positions = Arrays.copyOf(this.positions, capacity);
+        int after = this.size - this.gap;
+        System.arraycopy(this.positions, this.positions.length - after, positions, capacity - after, after);
+        this.positions = positions;
+    }
+}
@@ -1,20 +1,33 @@
 package regex;
 
 import com.sun.javafx.binding.StringFormatter;
+import dk.brics.automaton.Automaton;
 import dk.brics.automaton.RegExp;
+import dk.brics.automaton.RunAutomaton;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
 
 /**
  * Created by Maurice on 28-4-2016.
@@ -27,13 +40,44 @@ public class RegexBuilder {
      */
     public static final String DEFINITION_SPLIT = "\\s*\\:\\:\\=\\s*";
     public static final String DEFINITION_COMMENT = "#";
+    private static final String DEFINITION_SEPARATOR = "::=";
 
     private final HashMap<String, List<String>> regexes = new HashMap<>();
-    private final LinkedList<String> defOrder = new LinkedList<>();
+    private final ArrayList<String> defOrder = new ArrayList<>();
 
     private String string = null;
     private boolean changedSinceBuild;
+
+    /*
+     * The results for each definition, which are computed when first requested. When a definition changes, only its
+     * results and those of the definitions that refer to it (transitively) are removed.
+     */
     private final HashMap<String, String> unfoldedRegexes = new HashMap<>();
+    private final HashMap<String, RegExp> unfoldedRegExps = new HashMap<>();
+    private final HashMap<String, Automaton> automata = new HashMap<>();
+    private final HashMap<String, RunAutomaton> runAutomata = new HashMap<>();
+    private Automaton automaton = null;
+
+    /**
+     * The definitions each definition refers to, for the definitions that have been scanned for references.
+     */
+    private final HashMap<String, List<String>> references = new HashMap<>();
+
+    /**
+     * The scanned definitions that refer to each definition.
+     */
+    private final HashMap<String, HashSet<String>> dependents = new HashMap<>();
+
+    /**
+     * The identifiers of all definitions, or null if they changed since it was last needed.
+     */
+    private Identifiers identifiers = null;
+
+    /**
+     * The last published snapshot of the definitions, or null if none was published yet. This is the only state of
+     * the builder that may be read by other threads than the one that edits it.
+     */
+    private volatile RegexSpec spec = null;
 
     public RegexBuilder(){
 
@@ -42,32 +86,90 @@ public class RegexBuilder {
     public RegexBuilder(File file){
         this();
 
-        String[] split;
-        String line;
-
         try(BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)))){
-            while((line = reader.readLine()) != null){
-                if(line.length() > 0 && !line.startsWith(DEFINITION_COMMENT)) {
-                    split = line.split(RegexBuilder.DEFINITION_SPLIT);
-                    this.add(split[0], split[1]);
-                }
-            }
+            this.read(reader);
         } catch (IOException e) {
             e.printStackTrace();
         }
 
     }
 
+    /**
+     * Loads the definitions of a spec file, of which each line is either empty, a comment starting with
+     * {@code DEFINITION_COMMENT}, or a definition of the form {@code IDENTIFIER ::= regex}. Unlike the constructor,
+     * this reports the errors of reading the file.
+     * @param spec The spec file, which is decoded using the default charset.
+     * @return A builder with the definitions of the spec.
+     * @throws IOException When the file couldn't be read.
+     * @throws IllegalArgumentException When a line isn't a definition.
+     */
+    public static RegexBuilder load(Path spec) throws IOException {
+        RegexBuilder builder = new RegexBuilder();
+        try(BufferedReader reader = Files.newBufferedReader(spec, Charset.defaultCharset())){
+            builder.read(reader);
+        }
+        return builder;
+    }
+
+    /**
+     * Adds the definitions of all lines of a spec.
+     * @param reader The lines of the spec.
+     * @return This builder.
+     * @throws IOException When the lines couldn't be read.
+     * @throws IllegalArgumentException When a line isn't a definition.
+     */
+    RegexBuilder read(BufferedReader reader) throws IOException {
+        String line;
+        for(int number = 1; (line = reader.readLine()) != null; ++number) {
+            if(line.length() > 0 && !line.startsWith(DEFINITION_COMMENT))
+                this.define(line, number);
+        }
+        return this;
+    }
+
+    /**
+     * Adds the definition of a line, which is split around the first {@code ::=} like {@code DEFINITION_SPLIT} does,
+     * without a regex or substrings other than the identifier and regex.
+     */
+    private void define(String line, int number){
+        int separator = line.indexOf(DEFINITION_SEPARATOR);
+        if(separator < 0)
+            throw new IllegalArgumentException("Line "+number+" is not a definition: "+line);
+
+        int identifierEnd = separator;
+        while(identifierEnd > 0 && isSplitWhitespace(line.charAt(identifierEnd - 1))) --identifierEnd;
+        int regexStart = separator + DEFINITION_SEPARATOR.length();
+        while(regexStart < line.length() && isSplitWhitespace(line.charAt(regexStart))) ++regexStart;
+
+        // Like the split, the regex ends at the next separator if there is one
+        int regexEnd = line.indexOf(DEFINITION_SEPARATOR, regexStart);
+        if(regexEnd < 0) regexEnd = line.length();
+        else while(regexEnd > regexStart && isSplitWhitespace(line.charAt(regexEnd - 1))) --regexEnd;
+        if(regexEnd == regexStart)
+            throw new IllegalArgumentException("Line "+number+" defines an empty regex: "+line);
+
+        this.add(line.substring(0, identifierEnd), line.substring(regexStart, regexEnd));
+    }
+
+    /**
+     * Checks whether the given character is whitespace according to {@code \s} in {@code DEFINITION_SPLIT}.
+     */
+    private static boolean isSplitWhitespace(char c){
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
     public RegexBuilder add(String identifier, String regex){
 
-        if(this.defOrder.contains(identifier)){
+        if(this.regexes.containsKey(identifier)){
             this.regexes.get(identifier).add(regex);
+            this.invalidate(identifier);
         }
         else{
-            this.defOrder.addLast(identifier);
-            List<String> list = new LinkedList<>();
+            this.defOrder.add(identifier);
+            List<String> list = new ArrayList<>(1);
             list.add(regex);
             this.regexes.put(identifier, list);
+            this.added(identifier);
         }
 
         this.changedSinceBuild = true;
@@ -78,22 +180,195 @@ public class RegexBuilder {
         return regexes;
     }
 
+    /**
+     * Obtains the identifiers of all definitions in the order in which they were defined, which is also the order in
+     * which they may refer to each other.
+     * @return The identifiers, which can't be modified.
+     */
+    public List<String> getIdentifiers() {
+        return Collections.unmodifiableList(this.defOrder);
+    }
+
     public void setRegexForIdentifier(String identifier, List<String> regexes) {
-        this.regexes.put(identifier,  regexes);
-        this.unfold();
+        if(this.regexes.put(identifier, new ArrayList<>(regexes)) == null) {
+            this.defOrder.add(identifier);
+            this.added(identifier);
+        } else {
+            this.invalidate(identifier);
+        }
+
+        this.changedSinceBuild = true;
+        this.unfold(identifier);
     }
 
     public void updateIdentifier(String oldIdentifier, String newIdentifier) {
+        if(oldIdentifier.equals(newIdentifier)) return;
+        if(!this.regexes.containsKey(oldIdentifier))
+            throw new IllegalArgumentException("There is no definition with identifier "+oldIdentifier);
+        if(this.regexes.containsKey(newIdentifier))
+            throw new IllegalArgumentException("There already is a definition with identifier "+newIdentifier);
+
+        // The definitions that referred to the old identifier no longer do
+        this.invalidate(oldIdentifier);
+        this.dependents.remove(oldIdentifier);
+
         List<String> value = this.regexes.get(oldIdentifier);
         this.regexes.remove(oldIdentifier);
         this.regexes.put(newIdentifier, value);
-        this.unfold();
+        this.defOrder.set(this.defOrder.indexOf(oldIdentifier), newIdentifier);
+        this.added(newIdentifier);
+
+        this.changedSinceBuild = true;
+        this.unfold(newIdentifier);
     }
 
     public RegExp build(){
         return new RegExp(this.toString());
     }
 
+    /**
+     * Builds the automaton that accepts any of the definitions, like {@code build} but composed from the automata of
+     * the definitions instead of parsed from the unfolded expressions.
+     * @return The minimized automaton, which is shared and must not be modified.
+     */
+    public Automaton buildAutomaton(){
+        if(this.automaton == null) {
+            if(this.defOrder.size() == 0) {
+                this.automaton = Automaton.makeEmptyString();
+            } else {
+                List<Automaton> automata = new ArrayList<>(this.defOrder.size());
+                for(String definition : this.defOrder)
+                    automata.add(this.getAutomaton(definition));
+                this.automaton = Automaton.union(automata);
+                this.automaton.minimize();
+            }
+        }
+        return this.automaton;
+    }
+
+    /**
+     * Obtains the automaton of a definition, which is composed from the automata of the definitions it refers to.
+     * @param identifier The identifier of the definition.
+     * @return The minimized automaton, which is shared and must not be modified, or null if there is no such
+     * definition.
+     */
+    public Automaton getAutomaton(String identifier){
+        if(!this.regexes.containsKey(identifier)) return null;
+        this.compile(identifier);
+        return this.automata.get(identifier);
+    }
+
+    /**
+     * Compiles the automata of all definitions that aren't compiled yet, in parallel on the common pool.
+     * @return This builder.
+     */
+    public RegexBuilder compileAll(){
+        return this.compileAll(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Compiles the automata of all definitions that aren't compiled yet, in parallel on the given pool.
+     * <p>
+     * The definitions are compiled in waves. The first wave consists of the definitions that don't refer to any
+     * definition that still needs to be compiled, and each next wave of the definitions that only refer to
+     * definitions of earlier waves. The definitions within a wave are independent of each other, so each wave is
+     * compiled in parallel, after which its automata become available to the next wave.
+     * </p>
+     * @param pool The pool on which the definitions are compiled.
+     * @return This builder.
+     */
+    public RegexBuilder compileAll(ForkJoinPool pool){
+
+        // Every definition comes after those it refers to, so their waves are known by the time it is reached
+        HashMap<String, Integer> waveOf = new HashMap<>();
+        List<List<String>> waves = new ArrayList<>();
+        for(String definition : this.defOrder) {
+            if(this.automata.containsKey(definition)) continue;
+
+            int wave = 0;
+            for(String reference : this.references(definition)) {
+                Integer referenceWave = waveOf.get(reference);
+                if(referenceWave != null) wave = Math.max(wave, referenceWave + 1);
+            }
+            waveOf.put(definition, wave);
+            if(wave == waves.size()) waves.add(new ArrayList<>());
+            waves.get(wave).add(definition);
+        }
+
+        for(List<String> wave : waves) {
+            String[] definitions = wave.toArray(new String[wave.size()]);
+            Automaton[] automata = new Automaton[definitions.length];
+            pool.invoke(new CompileTask(definitions, automata, 0, definitions.length));
+            for(int i = 0; i < definitions.length; ++i)
+                this.automata.put(definitions[i], automata[i]);
+        }
+        return this;
+    }
+
+    /**
+     * Compiles the current definitions into an immutable snapshot and publishes it, such that any thread obtains it
+     * from {@code getSpec}. Like all other edits and compilations, this must be done by the thread that edits the
+     * builder, while threads that match read the published snapshot without any locking. Only the definitions that
+     * changed since the previous snapshot, and those that refer to them, are compiled again.
+     * @return The published snapshot.
+     */
+    public RegexSpec publish(){
+        RegexSpec spec = RegexSpec.compile(this, this.spec);
+        this.spec = spec;
+        return spec;
+    }
+
+    /**
+     * Obtains the last published snapshot of the definitions. Unlike the other methods, this can be called by any
+     * thread at any time: the snapshot is immutable, so edits that are made after it was published don't affect it.
+     * @return The snapshot, or null if none was published yet.
+     */
+    public RegexSpec getSpec(){
+        return this.spec;
+    }
+
+    /**
+     * Takes over the automata of another builder for the definitions that are the same in both builders, such as the
+     * definitions that didn't change since the previous version of a spec was compiled. A definition is the same if
+     * its regexes and the definitions it refers to are the same, and the automata of those definitions are taken over
+     * as well.
+     * @param previous The builder of which to take over the compiled automata, which are shared by both builders.
+     * @return This builder.
+     */
+    RegexBuilder reuse(RegexBuilder previous){
+        HashSet<String> reused = new HashSet<>();
+        for(String definition : this.defOrder) {
+            Automaton automaton = previous.automata.get(definition);
+            if(automaton == null || this.automata.containsKey(definition)
+                    || !this.regexes.get(definition).equals(previous.regexes.get(definition)))
+                continue;
+
+            // The same regexes refer to the same definitions as long as the identifiers they refer to exist in both
+            List<String> references = this.references(definition);
+            if(references.equals(previous.references.get(definition)) && reused.containsAll(references)) {
+                this.automata.put(definition, automaton);
+                reused.add(definition);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Obtains the automaton of a definition in the form that is the fastest to run.
+     * @param identifier The identifier of the definition.
+     * @return The shared automaton, or null if there is no such definition.
+     */
+    public RunAutomaton getRunAutomaton(String identifier){
+        RunAutomaton runAutomaton = this.runAutomata.get(identifier);
+        if(runAutomaton == null) {
+            Automaton automaton = this.getAutomaton(identifier);
+            if(automaton == null) return null;
+            runAutomaton = new RunAutomaton(automaton);
+            this.runAutomata.put(identifier, runAutomaton);
+        }
+        return runAutomaton;
+    }
+
     public String[] getExpressions(String identifier){
         List<String> regexes = this.regexes.get(identifier);
         if(regexes == null) return null;
@@ -111,27 +386,33 @@ public class RegexBuilder {
     }
 
     public String getUnfoldedExpression(String identifier){
-        if (unfoldedRegexes.isEmpty()) {
-            this.unfold();
-        }
+        if(!this.regexes.containsKey(identifier)) return null;
+        this.unfold(identifier);
         return this.unfoldedRegexes.get(identifier);
     }
 
     public RegExp getUnfoldedExpressionAsRegExp(String identifier){
-        String regex = this.getUnfoldedExpression(identifier);
-        if(regexes == null) return null;
-        else return new RegExp(regex);
+        RegExp regExp = this.unfoldedRegExps.get(identifier);
+        if(regExp == null) {
+            String regex = this.getUnfoldedExpression(identifier);
+            if(regex == null) return null;
+            regExp = new RegExp(regex);
+            this.unfoldedRegExps.put(identifier, regExp);
+        }
+        return regExp;
     }
 
-    public synchronized String toString(){
+    public String toString(){
 
         if(this.changedSinceBuild) {
             // was changed since last update
             if (this.defOrder.size() == 0) {
                 this.string = "";
             } else {
-                unfold();
-                this.string = guard(combine(this.unfoldedRegexes.values()));
+                List<String> unfolded = new ArrayList<>(this.defOrder.size());
+                for(String definition : this.defOrder)
+                    unfolded.add(this.getUnfoldedExpression(definition));
+                this.string = guard(combine(unfolded));
                 this.changedSinceBuild = false;
             }
         }
@@ -141,35 +422,317 @@ public class RegexBuilder {
     }
 
     /**
-     * Unfolds all definitions such that they no longer refer to other definitions
+     * Unfolds a definition such that it no longer refers to other definitions. The definitions it refers to are
+     * unfolded first, if they aren't already.
+     * @param identifier The identifier of the definition.
      */
-    private void unfold(){
+    private void unfold(String identifier){
+        for(String definition : this.missing(identifier, this.unfoldedRegexes))
+            this.unfoldedRegexes.put(definition, this.substitute(definition, this.unfoldedRegexes::get));
+    }
 
-        this.unfoldedRegexes.clear();
+    /**
+     * Compiles a definition into a minimized automaton. The definitions it refers to are compiled first, if they
+     * aren't already, and their automata are combined by {@code RegExp.toAutomaton} rather than compiled again. The
+     * size of the unfolded expressions, which may grow exponentially with the number of layers of references, thus
+     * doesn't matter.
+     * @param identifier The identifier of the definition.
+     */
+    private void compile(String identifier){
+        for(String definition : this.missing(identifier, this.automata))
+            this.automata.put(definition, this.compileDefinition(definition));
+    }
 
-        // First sweep: expand all versions of a definition into one
-        for(String definition : this.defOrder)
-            this.unfoldedRegexes.put(definition, combine(this.regexes.get(definition)));
+    /**
+     * Compiles a definition of which the definitions it refers to have been compiled. This only reads the state of
+     * the builder, such that multiple definitions can be compiled at the same time.
+     * <p>
+     * The references are named after the position of the definition rather than its identifier, as {@code RegExp}
+     * reads a name that contains {@code '-'} as an interval, and one that contains {@code '>'} ends early.
+     * </p>
+     * @param identifier The identifier of the definition.
+     * @return The minimized automaton of the definition.
+     */
+    private Automaton compileDefinition(String identifier){
+        Identifiers identifiers = this.identifiers();
+        HashMap<String, Automaton> automata = new HashMap<>();
+        String regex = this.substitute(identifier, reference -> {
+            String name = "d" + identifiers.position(reference);
+            automata.put(name, this.automata.get(reference));
+            return '<' + name + '>';
+        });
+        return new RegExp(regex).toAutomaton(automata);
+    }
 
-        // Seconds weep: fill in the expanded versions from the first sweep into any definitions referencing it
-        for(String definition : this.defOrder){
-            boolean ahead = false; // indicates whether we're looking ahead in the file
-            String unfoldSecond = this.unfoldedRegexes.get(definition);
-            for(String definition2 : this.defOrder) {
-                // We are looking "ahead" as soon as we encounter ourselves
-                if (definition2.equals(definition)) ahead = true;
+    /**
+     * Determines which definitions have no result yet that are needed for the result of a definition. These are the
+     * definition itself and the definitions it refers to, directly or indirectly, except for those that already have
+     * a result. As a definition may only refer to definitions that occur before it, the definition order is a
+     * topological order of the references, in which each definition only needs the results of definitions before it.
+     * @param identifier The identifier of the definition.
+     * @param results The results that are available, by identifier.
+     * @return The definitions without a result, in the definition order.
+     */
+    private List<String> missing(String identifier, Map<String, ?> results){
+        if(results.containsKey(identifier)) return Collections.emptyList();
+
+        // The references of definitions with a result have a result as well
+        Identifiers identifiers = this.identifiers();
+        HashSet<String> visited = new HashSet<>();
+        ArrayDeque<String> queue = new ArrayDeque<>();
+        List<String> missing = new ArrayList<>();
+        visited.add(identifier);
+        queue.add(identifier);
+        while(!queue.isEmpty()) {
+            String definition = queue.poll();
+            missing.add(definition);
+            for(String reference : this.references(definition))
+                if(!results.containsKey(reference) && visited.add(reference))
+                    queue.add(reference);
+        }
 
-                /*
-                 * The first definitions refers to the second.
-                 * This is only allowed if we're not looking ahead.
-                 * If we are looking ahead, then we throw an exception
-                 */
-                if(unfoldSecond.contains(definition2)){
-                    if(ahead) throw new InvalidReferenceException(definition, definition2);
-                    else unfoldSecond = unfoldSecond.replace(definition2, this.unfoldedRegexes.get(definition2));
+        missing.sort(Comparator.comparingInt(identifiers::position));
+        return missing;
+    }
+
+    /**
+     * Determines the definitions a definition refers to.
+     * @param identifier The identifier of the definition.
+     * @return The identifiers of the definitions it refers to, each once.
+     * @throws InvalidReferenceException When the definition refers to itself or a definition after it.
+     */
+    private List<String> references(String identifier){
+        List<String> references = this.references.get(identifier);
+        if(references == null) {
+            Identifiers identifiers = this.identifiers();
+            int position = identifiers.position(identifier);
+            LinkedHashSet<String> found = new LinkedHashSet<>();
+            this.substitute(identifier, reference -> {
+                if(identifiers.position(reference) >= position) return null;
+                found.add(reference);
+                return reference;
+            });
+
+            references = new ArrayList<>(found);
+            this.references.put(identifier, references);
+            for(String reference : references)
+                this.dependents.computeIfAbsent(reference, key -> new HashSet<>()).add(identifier);
+        }
+        return references;
+    }
+
+    /**
+     * Removes the results of a definition that changed, and of all definitions that refer to it.
+     * @param identifier The identifier of the definition.
+     */
+    private void invalidate(String identifier){
+        ArrayDeque<String> queue = new ArrayDeque<>();
+        queue.add(identifier);
+        while(!queue.isEmpty()) {
+            String definition = queue.poll();
+            this.unfoldedRegexes.remove(definition);
+            this.unfoldedRegExps.remove(definition);
+            this.automata.remove(definition);
+            this.runAutomata.remove(definition);
+
+            // The definition is scanned again when needed, so it no longer depends on its current references
+            List<String> references = this.references.remove(definition);
+            if(references != null)
+                for(String reference : references)
+                    this.dependents.get(reference).remove(definition);
+
+            // A definition of which the references have been removed has been invalidated before
+            HashSet<String> dependents = this.dependents.get(definition);
+            if(dependents != null)
+                queue.addAll(dependents);
+        }
+        this.automaton = null;
+    }
+
+    /**
+     * Updates the results after a definition is added. Definitions that contain the new identifier may refer to it
+     * now, so their results are removed.
+     * @param identifier The identifier of the new definition.
+     */
+    private void added(String identifier){
+        this.identifiers = null;
+        this.automaton = null;
+        if(this.references.isEmpty()) return;
+
+        List<String> changed = new ArrayList<>();
+        for(String definition : this.references.keySet())
+            for(String regex : this.regexes.get(definition))
+                if(regex.contains(identifier)) {
+                    changed.add(definition);
+                    break;
                 }
+        for(String definition : changed)
+            this.invalidate(definition);
+    }
+
+    /**
+     * Obtains the identifiers of all definitions.
+     */
+    private Identifiers identifiers(){
+        if(this.identifiers == null) this.identifiers = new Identifiers(this.defOrder);
+        return this.identifiers;
+    }
+
+    /**
+     * Replaces the references to other definitions in the regex of a definition.
+     * <p>
+     * The regex is scanned once for references, which are the longest identifiers that start at a position outside of
+     * escapes and character classes. This takes time linear in the size of the result.
+     * </p>
+     * @param definition The identifier of the definition.
+     * @param replacements Gives the replacement of a reference, or null if the definition may not refer to it.
+     * @return The regex with all references replaced.
+     * @throws InvalidReferenceException When a replacement is null.
+     */
+    private String substitute(String definition, Function<String, String> replacements){
+
+        String regex = combine(this.regexes.get(definition));
+        Identifiers identifiers = this.identifiers();
+        StringBuilder builder = new StringBuilder(regex.length());
+        int copied = 0; // the end of the part of the regex that is copied to the builder
+        int invalid = Integer.MAX_VALUE; // the position in the order of the first invalid reference
+
+        for(int i = 0; i < regex.length(); ) {
+            char c = regex.charAt(i);
+            if(c == '\\') {
+                i += 2;
+            } else if(c == '[') {
+                i = skipClass(regex, i);
+            } else {
+                String reference = identifiers.match(regex, i);
+                if(reference == null) {
+                    ++i;
+                    continue;
+                }
+
+                String replacement = replacements.apply(reference);
+                if(replacement == null) invalid = Math.min(invalid, identifiers.position(reference));
+                else builder.append(regex, copied, i).append(replacement);
+                i += reference.length();
+                copied = i;
+            }
+        }
+
+        // Report the invalid reference that occurs first in the order
+        if(invalid != Integer.MAX_VALUE)
+            throw new InvalidReferenceException(definition, this.defOrder.get(invalid));
+
+        return copied == 0 ? regex : builder.append(regex, copied, regex.length()).toString();
+    }
+
+    /**
+     * Determines where the character class that starts at the given offset ends.
+     * @param regex The regex that contains the class.
+     * @param offset The offset of the {@code [} that opens the class.
+     * @return The offset after the {@code ]} that closes the class, or the length of the regex if it isn't closed.
+     */
+    private static int skipClass(String regex, int offset){
+        for(int i = offset + 1; i < regex.length(); ++i) {
+            char c = regex.charAt(i);
+            if(c == '\\') ++i;
+            else if(c == ']') return i + 1;
+        }
+        return regex.length();
+    }
+
+    /**
+     * Compiles a range of definitions of the same wave, splitting it in halves until a single definition remains.
+     */
+    private class CompileTask extends RecursiveAction {
+
+        private final String[] definitions;
+
+        private final Automaton[] automata;
+
+        private final int from;
+
+        private final int to;
+
+        private CompileTask(String[] definitions, Automaton[] automata, int from, int to) {
+            this.definitions = definitions;
+            this.automata = automata;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from == 1) {
+                this.automata[this.from] = RegexBuilder.this.compileDefinition(this.definitions[this.from]);
+            } else if (this.to - this.from > 1) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new CompileTask(this.definitions, this.automata, this.from, middle),
+                        new CompileTask(this.definitions, this.automata, middle, this.to));
+            }
+        }
+    }
+
+    /**
+     * Finds the longest identifier of a set of identifiers that starts at a given position, by walking a trie of the
+     * identifiers character by character.
+     */
+    private static class Identifiers {
+
+        /**
+         * The nodes that follow this node by each character.
+         */
+        private final HashMap<Character, Identifiers> children = new HashMap<>();
+
+        /**
+         * The identifier that ends at this node, or null if none does.
+         */
+        private String identifier;
+
+        /**
+         * The position of the identifier that ends at this node in the collection of identifiers.
+         */
+        private int position;
+
+        private Identifiers(){
+
+        }
+
+        private Identifiers(Collection<String> identifiers){
+            int position = 0;
+            for(String identifier : identifiers) {
+                Identifiers node = this;
+                for(int i = 0; i < identifier.length(); ++i)
+                    node = node.children.computeIfAbsent(identifier.charAt(i), c -> new Identifiers());
+                if(node != this) {
+                    node.identifier = identifier;
+                    node.position = position;
+                }
+                ++position;
+            }
+        }
+
+        /**
+         * Determines the position of the given identifier in the collection of identifiers.
+         */
+        private int position(String identifier){
+            Identifiers node = this;
+            for(int i = 0; i < identifier.length(); ++i)
+                node = node.children.get(identifier.charAt(i));
+            return node.position;
+        }
+
+        /**
+         * Finds the longest identifier that starts at the given offset.
+         * @return The identifier, or null if none starts at the offset.
+         */
+        private String match(String regex, int offset){
+            String longest = null;
+            Identifiers node = this;
+            for(int i = offset; i < regex.length() && node != null; ++i) {
+                node = node.children.get(regex.charAt(i));
+                if(node != null && node.identifier != null) longest = node.identifier;
             }
-            this.unfoldedRegexes.put(definition, unfoldSecond);
+            return longest;
         }
     }
 
@@ -0,0 +1,364 @@
+package regex;
+
+import dk.brics.automaton.Automaton;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compiled form of a regex spec: the minimized automaton of every definition, as tables that can be run directly. The
+ * spec is immutable and can be shared by any number of threads.
+ * <p>
+ * Compiling a spec requires parsing, determinization and minimization of every definition. {@code load} stores the
+ * tables in a cache file next to the spec, named after the spec with the extension {@code .dfa}, which is keyed by the
+ * hash of the content of the spec. As long as the spec doesn't change, later loads map the cache file into memory and
+ * copy the tables from it instead of compiling anything.
+ * </p>
+ */
+public final class RegexSpec {
+
+    /**
+     * Extension of the cache file, which is appended to the name of the spec.
+     */
+    public static final String CACHE_EXTENSION = ".dfa";
+
+    /**
+     * Marks the start of a cache file.
+     */
+    private static final int MAGIC = 0x52444641;
+
+    /**
+     * Version of the format of the cache file, which is part of the key such that files of other versions are stale.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Length of the key in the cache file, which is the hexadecimal SHA-1 of the spec.
+     */
+    private static final int KEY_LENGTH = 40;
+
+    /**
+     * The identifiers of the definitions, in the order in which they were defined.
+     */
+    private final String[] identifiers;
+
+    /**
+     * The automaton of each definition, of which every accepting state has tag 0.
+     */
+    private final TaggedAutomaton[] automata;
+
+    /**
+     * The automaton of each definition from which {@code automata} was compiled, or null if the spec was loaded from
+     * its cache file.
+     */
+    private final Automaton[] sources;
+
+    /**
+     * The index of each identifier in {@code identifiers}.
+     */
+    private final HashMap<String, Integer> indices = new HashMap<>();
+
+    private RegexSpec(String[] identifiers, TaggedAutomaton[] automata, Automaton[] sources) {
+        this.identifiers = identifiers;
+        this.automata = automata;
+        this.sources = sources;
+        for (int i = 0; i < identifiers.length; ++i)
+            this.indices.put(identifiers[i], i);
+    }
+
+    /**
+     * Compile the definitions of the given builder.
+     *
+     * @param builder The definitions to compile.
+     * @return The compiled spec.
+     */
+    public static RegexSpec compile(RegexBuilder builder) {
+        return compile(builder, null);
+    }
+
+    /**
+     * Compile the definitions of the given builder, taking over the tables of the definitions of which the builder
+     * shares the automaton with the builder of the previous spec.
+     *
+     * @param builder  The definitions to compile.
+     * @param previous The previously compiled spec, or null.
+     * @return The compiled spec.
+     */
+    static RegexSpec compile(RegexBuilder builder, RegexSpec previous) {
+        builder.compileAll();
+        String[] identifiers = builder.getIdentifiers().toArray(new String[0]);
+        TaggedAutomaton[] automata = new TaggedAutomaton[identifiers.length];
+        Automaton[] sources = new Automaton[identifiers.length];
+        for (int i = 0; i < identifiers.length; ++i) {
+            sources[i] = builder.getAutomaton(identifiers[i]);
+            Integer index = previous == null || previous.sources == null ? null : previous.indices.get(identifiers[i]);
+            if (index != null && previous.sources[index] == sources[i])
+                automata[i] = previous.automata[index];
+            else
+                automata[i] = new TaggedAutomaton(sources[i]);
+        }
+        return new RegexSpec(identifiers, automata, sources);
+    }
+
+    /**
+     * Load the given spec, from its cache file if that is up to date. Otherwise the spec is compiled, after which the
+     * cache file is written for the next load.
+     *
+     * @param spec The file of the spec, in the format of {@code RegexBuilder}.
+     * @return The compiled spec.
+     * @throws IOException When the spec couldn't be read.
+     */
+    public static RegexSpec load(Path spec) throws IOException {
+        String content = content(spec);
+        String key = key(content);
+
+        RegexSpec loaded = read(cacheFile(spec), key);
+        if (loaded != null)
+            return loaded;
+
+        RegexSpec compiled = compile(parse(content));
+        compiled.store(spec, key);
+        return compiled;
+    }
+
+    /**
+     * Determine the cache file of the given spec.
+     *
+     * @param spec The file of the spec.
+     * @return The file next to the spec in which its tables are stored.
+     */
+    public static Path cacheFile(Path spec) {
+        return spec.resolveSibling(spec.getFileName() + CACHE_EXTENSION);
+    }
+
+    /**
+     * Obtain the identifiers of the definitions.
+     *
+     * @return The identifiers in the order in which they were defined, which can't be modified.
+     */
+    public List<String> identifiers() {
+        return Collections.unmodifiableList(Arrays.asList(this.identifiers));
+    }
+
+    /**
+     * Obtain the automaton of a definition.
+     *
+     * @param identifier The identifier of the definition.
+     * @return The automaton, of which every accepting state has tag 0, or null if there is no such definition.
+     */
+    public TaggedAutomaton automaton(String identifier) {
+        Integer index = this.indices.get(identifier);
+        return index == null ? null : this.automata[index];
+    }
+
+    /**
+     * Checks whether the given characters match a definition.
+     *
+     * @param identifier The identifier of the definition.
+     * @param input      The characters to match.
+     * @return {@code true} if the definition matches all of the given characters, {@code false} otherwise.
+     * @throws IllegalArgumentException When there is no such definition.
+     */
+    public boolean matches(String identifier, CharSequence input) {
+        TaggedAutomaton automaton = this.automaton(identifier);
+        if (automaton == null)
+            throw new IllegalArgumentException("There is no definition with identifier " + identifier);
+
+        int state = automaton.getInitialState();
+        for (int i = 0; i < input.length() && state != -1; ++i)
+            state = automaton.step(state, input.charAt(i));
+        return state != -1 && automaton.isAccept(state);
+    }
+
+    /**
+     * Creates a lexer of which every definition is a token, in the order in which they were defined.
+     *
+     * @return The lexer.
+     */
+    public Lexer lexer() {
+        return this.lexer(this.identifiers);
+    }
+
+    /**
+     * Creates a lexer of which the given definitions are the tokens, like {@code Lexer} does for a builder. The
+     * automata of the definitions are combined without compiling them again.
+     *
+     * @param tokens The identifiers of the definitions that are tokens, in order of priority.
+     * @return The lexer.
+     * @throws IllegalArgumentException When there is no definition for one of the tokens.
+     */
+    public Lexer lexer(String... tokens) {
+        TaggedAutomaton[] patterns = new TaggedAutomaton[tokens.length];
+        for (int i = 0; i < tokens.length; ++i) {
+            patterns[i] = this.automaton(tokens[i]);
+            if (patterns[i] == null)
+                throw new IllegalArgumentException("There is no definition with identifier " + tokens[i]);
+        }
+        return new Lexer(TaggedAutomaton.union(patterns), tokens.clone());
+    }
+
+    /**
+     * Read the content of a spec, decoded like {@code RegexBuilder.load} decodes it.
+     */
+    static String content(Path spec) throws IOException {
+        return new String(Files.readAllBytes(spec), Charset.defaultCharset());
+    }
+
+    /**
+     * Determine the key of the cache file of a spec with the given content.
+     */
+    static String key(String content) {
+        return Hashes.sha1(VERSION + "\n" + content);
+    }
+
+    /**
+     * Parse the definitions of a spec, like {@code RegexBuilder.load} parses a file.
+     */
+    static RegexBuilder parse(String content) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new StringReader(content))) {
+            return new RegexBuilder().read(reader);
+        }
+    }
+
+    /**
+     * Load a spec from its cache file.
+     *
+     * @return The spec, or null if the cache file doesn't exist, is stale or is corrupt.
+     */
+    static RegexSpec cached(Path spec, String key) {
+        return read(cacheFile(spec), key);
+    }
+
+    /**
+     * Write the cache file of the spec, such that the next load doesn't have to compile it.
+     */
+    void store(Path spec, String key) {
+        try {
+            this.write(cacheFile(spec), key);
+        } catch (IOException e) {
+            // Not being able to write the cache is not fatal, the spec is simply compiled again on the next load
+        }
+    }
+
+    /**
+     * Read the spec from the given cache file.
+     *
+     * @return The spec, or null if the cache file doesn't exist, is stale or is corrupt.
+     */
+    private static RegexSpec read(Path cache, String key) {
+        if (!Files.isRegularFile(cache))
+            return null;
+
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC)
+                return null;
+            byte[] cachedKey = new byte[KEY_LENGTH];
+            buffer.get(cachedKey);
+            if (!key.equals(new String(cachedKey, StandardCharsets.US_ASCII)))
+                return null;
+
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining())
+                return null;
+            String[] identifiers = new String[count];
+            for (int i = 0; i < count; ++i)
+                identifiers[i] = readString(buffer);
+            TaggedAutomaton[] automata = new TaggedAutomaton[count];
+            for (int i = 0; i < count; ++i)
+                automata[i] = TaggedAutomaton.read(buffer);
+            return new RegexSpec(identifiers, automata, null);
+        } catch (IOException | RuntimeException e) {
+            // A stale or corrupt cache file is not fatal, we simply compile the spec ourselves
+            return null;
+        }
+    }
+
+    /**
+     * Write the spec to the given cache file. The file is written next to it first and then moved in place, such that
+     * concurrent loads never read a partially written file. The temporary file is created like any other file, rather
+     * than by {@code Files.createTempFile}, as the cache file keeps its permissions and those of a temporary file are
+     * restricted to its owner.
+     */
+    private void write(Path cache, String key) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.write(key.getBytes(StandardCharsets.US_ASCII));
+        out.writeInt(this.identifiers.length);
+        for (String identifier : this.identifiers)
+            writeString(out, identifier);
+        for (TaggedAutomaton automaton : this.automata)
+            automaton.write(out);
+        out.flush();
+
+        Path temporary;
+        OutputStream stream;
+        while (true) {
+            temporary = cache.resolveSibling(cache.getFileName() + "."
+                    + Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                stream = Files.newOutputStream(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                // Another load is writing a cache file with the same name, simply pick another one
+            }
+        }
+        try {
+            try (OutputStream output = stream) {
+                bytes.writeTo(output);
+            }
+            try {
+                Files.move(temporary, cache, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, cache, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Write a string as its length followed by its characters, padded to a multiple of 4 bytes.
+     */
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        out.writeInt(string.length());
+        out.writeChars(string);
+        if (string.length() % 2 != 0)
+            out.writeChar(0);
+    }
+
+    /**
+     * Read a string that was written by {@code writeString}.
+     */
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining() / 2)
+            throw new BufferUnderflowException();
+        char[] chars = new char[length];
+        buffer.asCharBuffer().get(chars);
+        buffer.position(buffer.position() + (length + length % 2) * 2);
+        return new String(chars);
+    }
+}
@@ -9,7 +9,6 @@ import dk.brics.automaton.RunAutomaton;
 import gui.RegexBuilderForm;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -138,7 +137,7 @@ public class RegexTest {
     private static void testPicoRecognition(File file){
         try{
             System.out.println("Trying to recognize "+file.getAbsolutePath());
-            new PicoRec(new FileInputStream(file)).recognize();
+            new PicoRec(file.toPath()).recognize();
             System.out.println("Recognized");
         } catch (PicoRec.ParseException e) {
             System.out.println("Wasn't recognized. Cause: "+e.getMessage());
@@ -0,0 +1,298 @@
+package regex;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+/**
+ * Lexer of a spec file that is reloaded while it is in use. A background thread watches the directory of the spec and
+ * compiles the spec again whenever it changes, after which the new lexer replaces the current one. Threads that
+ * tokenize obtain the current lexer from {@code lexer} without ever waiting for a reload, and cursors created before
+ * a reload keep tokenizing with the lexer they were created by.
+ * <p>
+ * A reload only compiles the definitions that changed, and those that refer to them: the automata of the other
+ * definitions are taken over from the previous version of the spec. The first version is loaded like
+ * {@code RegexSpec.load} loads it, so it is read from the cache file if that is up to date, in which case the first
+ * reload compiles all definitions. Every version is stored in the cache file, such that the next start is fast.
+ * </p>
+ * <p>
+ * When a version of the spec can't be compiled, for instance because it is saved halfway an edit, the current lexer
+ * is kept and the error is available from {@code failure} until the next version is compiled.
+ * </p>
+ * <p>
+ * Each version is published as a single {@code Version}, so a spec and a lexer obtained from the same {@code current}
+ * always belong together. Once the reloader is closed, nothing is reloaded and the cache file is no longer written.
+ * </p>
+ */
+public class ReloadingLexer implements Closeable {
+
+    /**
+     * The spec file.
+     */
+    private final Path path;
+
+    /**
+     * The identifiers of the definitions that are tokens, or null if every definition is a token.
+     */
+    private final String[] tokens;
+
+    /**
+     * The watcher of the directory of the spec, or null if the spec is only reloaded on request.
+     */
+    private final WatchService watcher;
+
+    /**
+     * The thread that reloads the spec when the watcher reports it changed, or null if there is no watcher.
+     */
+    private final Thread thread;
+
+    /**
+     * The current version of the spec and its lexer.
+     */
+    private volatile Version current;
+
+    /**
+     * Whether the reloader is closed, after which the spec is no longer reloaded.
+     */
+    private volatile boolean closed;
+
+    /**
+     * The error of the last reload by the watcher, or null if it succeeded.
+     */
+    private volatile Exception failure;
+
+    /**
+     * The key of the content of the current version of the spec. Only used while reloading.
+     */
+    private String key;
+
+    /**
+     * The definitions of the current version of the spec, or null if it was loaded from the cache file. Only used
+     * while reloading.
+     */
+    private RegexBuilder builder;
+
+    /**
+     * Loads the lexer of the given spec and starts watching it for changes.
+     *
+     * @param spec   The spec file, in the format of {@code RegexBuilder}.
+     * @param tokens The identifiers of the definitions that are tokens, in order of priority. If none are given then
+     *               every definition is a token, in the order in which they are defined.
+     * @throws IOException When the spec couldn't be read or watched.
+     * @throws IllegalArgumentException When there is no definition for one of the tokens.
+     */
+    public ReloadingLexer(Path spec, String... tokens) throws IOException {
+        this(spec, true, tokens);
+    }
+
+    /**
+     * Loads the lexer of the given spec, and optionally starts watching it for changes. Without a watcher the spec
+     * is only reloaded by {@code reload}.
+     *
+     * @param spec   The spec file, in the format of {@code RegexBuilder}.
+     * @param watch  Whether to reload the spec whenever it changes.
+     * @param tokens The identifiers of the definitions that are tokens, in order of priority. If none are given then
+     *               every definition is a token, in the order in which they are defined.
+     * @throws IOException When the spec couldn't be read or watched.
+     * @throws IllegalArgumentException When there is no definition for one of the tokens.
+     */
+    public ReloadingLexer(Path spec, boolean watch, String... tokens) throws IOException {
+        this.path = spec.toAbsolutePath();
+        this.tokens = tokens.length == 0 ? null : tokens.clone();
+        this.reload();
+
+        if (!watch) {
+            this.watcher = null;
+            this.thread = null;
+            return;
+        }
+
+        this.watcher = this.path.getFileSystem().newWatchService();
+        try {
+            this.path.getParent().register(this.watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            this.watcher.close();
+            throw e;
+        }
+
+        this.thread = new Thread(this::watch, "Reloader of " + this.path.getFileName());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Obtain the current version of the spec together with its lexer. This never waits for a reload.
+     *
+     * @return The current version.
+     */
+    public Version current() {
+        return this.current;
+    }
+
+    /**
+     * Obtain the lexer of the current version of the spec. This never waits for a reload.
+     *
+     * @return The current lexer.
+     */
+    public Lexer lexer() {
+        return this.current.lexer;
+    }
+
+    /**
+     * Obtain the current version of the spec. This never waits for a reload.
+     *
+     * @return The current spec.
+     */
+    public RegexSpec spec() {
+        return this.current.spec;
+    }
+
+    /**
+     * Obtain the error of the last reload after the spec changed.
+     *
+     * @return The error, or null if the current version of the spec was compiled.
+     */
+    public Exception failure() {
+        return this.failure;
+    }
+
+    /**
+     * Reload the spec now, rather than when the watcher notices it changed. Nothing is compiled if the content of the
+     * spec is the same as that of the current version.
+     *
+     * @return {@code true} if a new lexer was published, {@code false} if the spec didn't change.
+     * @throws IOException When the spec couldn't be read.
+     * @throws IllegalArgumentException When there is no definition for one of the tokens, or when a line of the spec
+     *                                  isn't a definition.
+     * @throws IllegalStateException When the reloader is closed.
+     */
+    public synchronized boolean reload() throws IOException {
+        this.checkOpen();
+        String content = RegexSpec.content(this.path);
+        String key = RegexSpec.key(content);
+        if (key.equals(this.key))
+            return false;
+
+        RegexSpec spec = this.key == null ? RegexSpec.cached(this.path, key) : null;
+        RegexBuilder builder = null;
+        if (spec == null) {
+            builder = RegexSpec.parse(content);
+            if (this.builder != null)
+                builder.reuse(this.builder);
+            spec = RegexSpec.compile(builder, this.current == null ? null : this.current.spec);
+
+            // Compiling may take a while, the reloader may have been closed in the meantime
+            this.checkOpen();
+            spec.store(this.path, key);
+        }
+        Lexer lexer = this.tokens == null ? spec.lexer() : spec.lexer(this.tokens);
+
+        this.key = key;
+        this.builder = builder;
+        this.current = new Version(spec, lexer);
+        return true;
+    }
+
+    /**
+     * Stop watching the spec. A reload that is in progress is interrupted, and this waits until it is done, after
+     * which the spec is never reloaded again. The current lexer remains usable.
+     *
+     * @throws IOException When the watcher couldn't be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        if (this.watcher != null) {
+            this.watcher.close();
+            this.thread.interrupt();
+
+            boolean interrupted = false;
+            while (this.thread.isAlive()) {
+                try {
+                    this.thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        // Wait for a reload that was requested by another thread, then drop the definitions only reloads use
+        synchronized (this) {
+            this.builder = null;
+        }
+    }
+
+    private void checkOpen() {
+        if (this.closed)
+            throw new IllegalStateException("The reloader of " + this.path + " is closed");
+    }
+
+    /**
+     * Reload the spec whenever the watcher reports it changed, until the watcher is closed.
+     */
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = this.watcher.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents())
+                    changed |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                            || this.path.getFileName().equals(event.context());
+                key.reset();
+
+                if (changed && !this.closed) {
+                    try {
+                        this.reload();
+                        this.failure = null;
+                    } catch (IOException | RuntimeException e) {
+                        // The spec may be saved halfway an edit, the next change reloads it again
+                        this.failure = e;
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // The reloader is closed
+        }
+    }
+
+    /**
+     * A version of the spec together with its lexer, which are published at once.
+     */
+    public static final class Version {
+
+        private final RegexSpec spec;
+
+        private final Lexer lexer;
+
+        private Version(RegexSpec spec, Lexer lexer) {
+            this.spec = spec;
+            this.lexer = lexer;
+        }
+
+        /**
+         * Obtain the spec of this version.
+         *
+         * @return The spec.
+         */
+        public RegexSpec spec() {
+            return this.spec;
+        }
+
+        /**
+         * Obtain the lexer of this version.
+         *
+         * @return The lexer of the spec.
+         */
+        public Lexer lexer() {
+            return this.lexer;
+        }
+    }
+}
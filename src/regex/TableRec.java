@@ -0,0 +1,108 @@
+package regex;
+
+import regex.PicoTokenizer.Token;
+
+import java.util.Arrays;
+
+/**
+ * Table driven recognizer of Pico programs. Unlike {@code PicoRec}, which recurses for every operand of an
+ * expression, this keeps the symbols that remain to be matched on an explicit stack. Arbitrarily deeply nested and
+ * arbitrarily long expressions are therefore recognized without growing the Java stack, and every token costs a
+ * table lookup per expanded nonterminal.
+ * <p>
+ * The table is generated from a {@code Grammar}, such as the one in {@code examples/pico.grammar}, with which the
+ * same errors are reported as by {@code PicoRec}. Like {@code PicoRec}, recognition stops once the start symbol is
+ * matched, so tokens after {@code "end"} are ignored.
+ * </p>
+ */
+public class TableRec {
+
+    /**
+     * The initial size of the stack, which grows when needed.
+     */
+    private static final int INITIAL_STACK_SIZE = 64;
+
+    /**
+     * The grammar of which the parse table is used.
+     */
+    private final Grammar grammar;
+
+    /**
+     * The tokens that are recognized by this recognizer.
+     */
+    private final TokenCursor tokenizer;
+
+    /**
+     * Creates a new {@code TableRec} that aims to recognize the given string.
+     *
+     * @param grammar The grammar to recognize the string with.
+     * @param string  The string that contains the code that should be recognized.
+     */
+    public TableRec(Grammar grammar, String string) {
+        this(grammar, new PicoTokenizer(string));
+    }
+
+    /**
+     * Creates a new {@code TableRec} that aims to recognize the tokens in the given buffer.
+     *
+     * @param grammar The grammar to recognize the tokens with.
+     * @param tokens  The tokens that should be recognized.
+     */
+    public TableRec(Grammar grammar, TokenBuffer tokens) {
+        this(grammar, tokens.cursor());
+    }
+
+    /**
+     * Creates a new {@code TableRec} that aims to recognize the tokens of the given cursor, from the token it rests on.
+     *
+     * @param grammar   The grammar to recognize the tokens with.
+     * @param tokenizer The tokens that should be recognized.
+     */
+    public TableRec(Grammar grammar, TokenCursor tokenizer) {
+        this.grammar = grammar;
+        this.tokenizer = tokenizer;
+    }
+
+    /**
+     * Recognize the earlier defined input as a program of the grammar, stopping at the first error.
+     *
+     * @return {@code Result.OK} if the input is recognized, or a result describing the first error otherwise.
+     */
+    public synchronized PicoRec.Result check() {
+        int[] stack = new int[INITIAL_STACK_SIZE];
+        int size = 0;
+        stack[size++] = this.grammar.start();
+
+        while (size > 0) {
+            int symbol = stack[--size];
+            Token.Type type = this.tokenizer.type();
+            int terminal = type == null ? Grammar.END_OF_INPUT : type.ordinal();
+
+            if (Grammar.isTerminal(symbol)) {
+                if (symbol != terminal)
+                    return this.fail(PicoTokenizer.TYPES[symbol]);
+                this.tokenizer.advance();
+                continue;
+            }
+
+            // Push the symbols in reverse, such that the first one is matched first
+            int[] body = this.grammar.production(this.grammar.predict(symbol, terminal));
+            if (size + body.length > stack.length)
+                stack = Arrays.copyOf(stack, Math.max(size + body.length, stack.length * 2));
+            for (int i = body.length - 1; i >= 0; --i)
+                stack[size++] = body[i];
+        }
+        return PicoRec.Result.OK;
+    }
+
+    /**
+     * Report that the current token is not of the expected type.
+     *
+     * @param expected The type of token that was expected.
+     * @return The result describing the error.
+     */
+    private PicoRec.Result fail(Token.Type expected) {
+        return new PicoRec.Result(new PicoRec.Diagnostic(this.tokenizer.start(), this.tokenizer.line(),
+                this.tokenizer.column(), expected, this.tokenizer.type()));
+    }
+}
@@ -0,0 +1,364 @@
+package regex;
+
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.RunAutomaton;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Deterministic automaton that recognizes multiple patterns at once and tags each accepting state with the pattern it
+ * accepts. When a string is accepted by multiple patterns, the pattern that was given first takes priority. This
+ * allows a lexer to determine the kind of the matched token by a single table lookup of the state in which the match
+ * ended, rather than by matching the token again against every pattern.
+ * <p>
+ * The automaton is the product of the (minimized) automata of the individual patterns, restricted to the states that
+ * are reachable from the initial state. Its tables are immutable, so a single instance can be shared by any number of
+ * threads.
+ * </p>
+ */
+public class TaggedAutomaton implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Tag of states that don't accept.
+     */
+    public static final int NO_TAG = -1;
+
+    /**
+     * Number of characters for which the character class is looked up in a table rather than searched for.
+     */
+    private static final int DIRECT_CLASSES = 128;
+
+    /**
+     * The first character of each character class, in ascending order. The first class starts at {@code '\u0000'}.
+     */
+    private final char[] points;
+
+    /**
+     * The character class of each of the first {@code DIRECT_CLASSES} characters.
+     */
+    private final int[] directClasses;
+
+    /**
+     * The transitions, indexed by {@code state * points.length + class}. A value of -1 indicates there is no
+     * transition.
+     */
+    private final int[] transitions;
+
+    /**
+     * The tag of each state, or {@code NO_TAG} if the state doesn't accept.
+     */
+    private final int[] tags;
+
+    /**
+     * Create the automaton that recognizes all given patterns. The tag of a pattern is its index.
+     *
+     * @param patterns The automata of the patterns, in order of priority.
+     */
+    public TaggedAutomaton(Automaton... patterns) {
+        this(components(patterns));
+    }
+
+    /**
+     * Create the automaton that recognizes all patterns of the given automata. The tag of a pattern is the index of
+     * the automaton that recognizes it, which takes priority over the automata after it.
+     */
+    private TaggedAutomaton(TaggedAutomaton[] components) {
+        this.points = points(components);
+
+        // Explore the reachable part of the product automaton breadth first, each state being a tuple of the states of
+        // all components
+        int classes = this.points.length;
+        Map<StateTuple, Integer> numbering = new HashMap<>();
+        List<int[]> states = new ArrayList<>();
+        Deque<StateTuple> queue = new ArrayDeque<>();
+
+        int[] initial = new int[components.length];
+        for (int i = 0; i < components.length; ++i)
+            initial[i] = components[i].getInitialState();
+        StateTuple initialTuple = new StateTuple(initial);
+        numbering.put(initialTuple, 0);
+        states.add(initial);
+        queue.add(initialTuple);
+
+        List<int[]> rows = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            int[] current = queue.poll().states;
+            int[] row = new int[classes];
+            for (int k = 0; k < classes; ++k) {
+                int[] target = new int[components.length];
+                boolean dead = true;
+                for (int i = 0; i < components.length; ++i) {
+                    target[i] = current[i] == -1 ? -1 : components[i].step(current[i], this.points[k]);
+                    dead &= target[i] == -1;
+                }
+
+                if (dead) {
+                    row[k] = -1;
+                    continue;
+                }
+
+                StateTuple tuple = new StateTuple(target);
+                Integer number = numbering.get(tuple);
+                if (number == null) {
+                    number = states.size();
+                    numbering.put(tuple, number);
+                    states.add(target);
+                    queue.add(tuple);
+                }
+                row[k] = number;
+            }
+            rows.add(row);
+        }
+
+        this.transitions = new int[states.size() * classes];
+        this.tags = new int[states.size()];
+        for (int s = 0; s < states.size(); ++s) {
+            System.arraycopy(rows.get(s), 0, this.transitions, s * classes, classes);
+            this.tags[s] = NO_TAG;
+            int[] tuple = states.get(s);
+            for (int i = 0; i < components.length && this.tags[s] == NO_TAG; ++i)
+                if (tuple[i] != -1 && components[i].isAccept(tuple[i]))
+                    this.tags[s] = i;
+        }
+        this.directClasses = directClasses(this.points);
+    }
+
+    /**
+     * Create the automaton with the given tables.
+     */
+    private TaggedAutomaton(char[] points, int[] transitions, int[] tags) {
+        this.points = points;
+        this.transitions = transitions;
+        this.tags = tags;
+        this.directClasses = directClasses(points);
+    }
+
+    /**
+     * Create the automaton that recognizes all patterns of the given automata, without compiling the patterns again.
+     * This allows automata that were compiled before, such as those of {@code RegexSpec}, to be combined cheaply.
+     *
+     * @param automata The automata, in order of priority.
+     * @return The automaton of which the tag of each pattern is the index of the automaton that recognizes it.
+     */
+    public static TaggedAutomaton union(TaggedAutomaton... automata) {
+        return new TaggedAutomaton(automata.clone());
+    }
+
+    /**
+     * Convert the given patterns to automata with tables, of which every accepting state has tag 0.
+     */
+    private static TaggedAutomaton[] components(Automaton[] patterns) {
+        TaggedAutomaton[] components = new TaggedAutomaton[patterns.length];
+        for (int i = 0; i < patterns.length; ++i) {
+            RunAutomaton pattern = new RunAutomaton(patterns[i]);
+            char[] points = pattern.getCharIntervals();
+            int[] transitions = new int[pattern.getSize() * points.length];
+            int[] tags = new int[pattern.getSize()];
+            for (int state = 0; state < pattern.getSize(); ++state) {
+                for (int k = 0; k < points.length; ++k)
+                    transitions[state * points.length + k] = pattern.step(state, points[k]);
+                tags[state] = pattern.isAccept(state) ? 0 : NO_TAG;
+            }
+
+            // The states are renumbered such that the initial state is 0, like the states of any other instance
+            int initial = pattern.getInitialState();
+            if (initial != 0) {
+                swapStates(transitions, tags, points.length, 0, initial);
+            }
+            components[i] = new TaggedAutomaton(points, transitions, tags);
+        }
+        return components;
+    }
+
+    /**
+     * Exchange the numbers of two states in the given tables.
+     */
+    private static void swapStates(int[] transitions, int[] tags, int classes, int a, int b) {
+        for (int k = 0; k < classes; ++k) {
+            int t = transitions[a * classes + k];
+            transitions[a * classes + k] = transitions[b * classes + k];
+            transitions[b * classes + k] = t;
+        }
+        for (int i = 0; i < transitions.length; ++i) {
+            if (transitions[i] == a) transitions[i] = b;
+            else if (transitions[i] == b) transitions[i] = a;
+        }
+        int t = tags[a];
+        tags[a] = tags[b];
+        tags[b] = t;
+    }
+
+    /**
+     * Determine the character classes of the product, which are the common refinement of the classes of all
+     * components.
+     */
+    private static char[] points(TaggedAutomaton[] components) {
+        TreeSet<Character> points = new TreeSet<>();
+        points.add('\u0000');
+        for (TaggedAutomaton component : components)
+            for (char point : component.points)
+                points.add(point);
+
+        char[] result = new char[points.size()];
+        int i = 0;
+        for (char point : points)
+            result[i++] = point;
+        return result;
+    }
+
+    /**
+     * Determine the class of each of the first {@code DIRECT_CLASSES} characters.
+     */
+    private static int[] directClasses(char[] points) {
+        int[] directClasses = new int[DIRECT_CLASSES];
+        for (int c = 0, k = 0; c < DIRECT_CLASSES; ++c) {
+            while (k + 1 < points.length && points[k + 1] <= c) ++k;
+            directClasses[c] = k;
+        }
+        return directClasses;
+    }
+
+    /**
+     * Write the tables of the automaton in a compact binary form that can be read by {@code read}.
+     *
+     * @param out The output to write to.
+     * @throws IOException When the tables couldn't be written.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(this.tags.length);
+        out.writeInt(this.points.length);
+        for (char point : this.points)
+            out.writeChar(point);
+        // Keep the ints aligned, such that they can be read in bulk from a mapped buffer
+        if (this.points.length % 2 != 0)
+            out.writeChar(0);
+        for (int transition : this.transitions)
+            out.writeInt(transition);
+        for (int tag : this.tags)
+            out.writeInt(tag);
+    }
+
+    /**
+     * Read the tables of an automaton that were written by {@code write}, such as from a memory mapped file. This
+     * doesn't compile anything, the tables are copied in bulk.
+     *
+     * @param buffer The buffer to read from, of which the position is moved past the tables.
+     * @return The automaton.
+     * @throws java.nio.BufferUnderflowException When the buffer doesn't contain the complete tables.
+     */
+    static TaggedAutomaton read(ByteBuffer buffer) {
+        int states = buffer.getInt();
+        int classes = buffer.getInt();
+        if (states <= 0 || classes <= 0 || (long) states * classes > buffer.remaining() / 4)
+            throw new BufferUnderflowException();
+
+        char[] points = new char[classes];
+        buffer.asCharBuffer().get(points);
+        buffer.position(buffer.position() + (classes + classes % 2) * 2);
+        int[] transitions = new int[states * classes];
+        buffer.asIntBuffer().get(transitions);
+        buffer.position(buffer.position() + transitions.length * 4);
+        int[] tags = new int[states];
+        buffer.asIntBuffer().get(tags);
+        buffer.position(buffer.position() + tags.length * 4);
+        return new TaggedAutomaton(points, transitions, tags);
+    }
+
+    /**
+     * Obtain the initial state.
+     *
+     * @return The initial state, which is always 0.
+     */
+    public int getInitialState() {
+        return 0;
+    }
+
+    /**
+     * Obtain the number of states.
+     *
+     * @return The number of states.
+     */
+    public int getSize() {
+        return this.tags.length;
+    }
+
+    /**
+     * Perform a transition.
+     *
+     * @param state The state from which to perform the transition.
+     * @param c     The character on which to perform the transition.
+     * @return The resulting state, or -1 if there is no such transition.
+     */
+    public int step(int state, char c) {
+        int k = c < DIRECT_CLASSES ? this.directClasses[c] : this.classOf(c);
+        return this.transitions[state * this.points.length + k];
+    }
+
+    /**
+     * Indicates whether the given state accepts.
+     *
+     * @param state The state to inspect.
+     * @return {@code true} if any of the patterns accepts in the given state, {@code false} otherwise.
+     */
+    public boolean isAccept(int state) {
+        return this.tags[state] != NO_TAG;
+    }
+
+    /**
+     * Obtain the tag of the given state.
+     *
+     * @param state The state to inspect.
+     * @return The index of the pattern with the highest priority that accepts in the given state, or {@code NO_TAG}
+     * if the state doesn't accept.
+     */
+    public int getTag(int state) {
+        return this.tags[state];
+    }
+
+    /**
+     * Find the class of the given character by a binary search over the classes.
+     */
+    private int classOf(char c) {
+        int k = Arrays.binarySearch(this.points, c);
+        return k >= 0 ? k : -k - 2;
+    }
+
+    /**
+     * A tuple of states of the components, used to number the states of the product.
+     */
+    private static class StateTuple {
+
+        private final int[] states;
+
+        private final int hash;
+
+        private StateTuple(int[] states) {
+            this.states = states;
+            this.hash = Arrays.hashCode(states);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StateTuple && Arrays.equals(this.states, ((StateTuple) o).states);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+}
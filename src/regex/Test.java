@@ -1,7 +1,6 @@
 package regex;
 
 import java.io.File;
-import java.io.FileInputStream;
 
 /**
  * Created by Maurice on 9-5-2016.
@@ -11,7 +10,7 @@ public class Test {
 
     static void testParse(File file){
         try {
-            new PicoRec(new FileInputStream(file)).recognize();
+            new PicoRec(file.toPath()).recognize();
             System.out.println("Recognized!");
 
         } catch (Exception e) {
@@ -0,0 +1,551 @@
+package regex;
+
+import regex.PicoTokenizer.Token;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * All tokens of an input, stored column wise in parallel arrays of type ordinal, start offset and length. Compared to
+ * a sequence of {@code Token} objects this takes 9 bytes per token, doesn't create a String per token and allows the
+ * tokens to be traversed sequentially in a cache friendly way, any number of times.
+ * <p>
+ * The values of the tokens are not copied. They are obtained from the input on request, so the input must not be
+ * changed as long as the buffer is in use, unless the buffer is told about the change through {@code relex}.
+ * </p>
+ * <p>
+ * To keep such changes cheap, the columns are a gap buffer: the tokens after the gap are stored at the end of the
+ * arrays, with their start offsets relative to the end of the input. A change replaces the tokens at the gap, which
+ * leaves the tokens after it valid without moving or updating them.
+ * </p>
+ */
+public final class TokenBuffer {
+
+    /**
+     * The initial number of tokens for which space is reserved.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The minimum number of characters per chunk when tokenizing in parallel. Smaller chunks aren't worth the overhead
+     * of distributing them.
+     */
+    private static final int MINIMUM_CHUNK_SIZE = 1 << 16;
+
+    /**
+     * The input that was tokenized.
+     */
+    private final CharSequence input;
+
+    /**
+     * The ordinal of the {@code Token.Type} of each token.
+     */
+    private byte[] types;
+
+    /**
+     * The offset in the input at which each token starts. The offsets of the tokens after the gap are relative to
+     * {@code length}.
+     */
+    private int[] starts;
+
+    /**
+     * The number of characters of each token.
+     */
+    private int[] lengths;
+
+    /**
+     * The number of tokens.
+     */
+    private int size;
+
+    /**
+     * The index of the first token after the gap. The gap is at the end, unless the input was changed.
+     */
+    private int gap;
+
+    /**
+     * The length of the input, as of the last change the buffer was told about.
+     */
+    private int length;
+
+    /**
+     * The offset in the input at which each line starts. It is only determined when it is first needed.
+     */
+    private PositionBuffer lineStarts;
+
+    TokenBuffer(CharSequence input, int capacity) {
+        this.input = input;
+        this.length = input.length();
+        this.types = new byte[Math.max(capacity, 1)];
+        this.starts = new int[this.types.length];
+        this.lengths = new int[this.types.length];
+    }
+
+    /**
+     * Tokenize the entire input.
+     *
+     * @param input The input to tokenize.
+     * @return The buffer containing all tokens of the input.
+     */
+    public static TokenBuffer tokenize(CharSequence input) {
+        return tokenize(input, 0, input.length());
+    }
+
+    /**
+     * Tokenize the entire input by splitting it into chunks that are tokenized in parallel. The chunks are split at
+     * whitespace: as no token contains whitespace, tokenizing from a whitespace character onwards yields the same
+     * tokens as tokenizing the entire input does from that point. The tokens of the chunks are therefore simply
+     * concatenated.
+     *
+     * @param input  The input to tokenize.
+     * @param chunks The maximum number of chunks to tokenize in parallel. Inputs that are too small for the given
+     *               number of chunks are split in fewer chunks.
+     * @return The buffer containing all tokens of the input, which is equal to the result of {@code tokenize(input)}.
+     */
+    public static TokenBuffer tokenize(CharSequence input, int chunks) {
+        int[] bounds = chunkBounds(input, Math.min(chunks, input.length() / MINIMUM_CHUNK_SIZE));
+        if (bounds.length <= 2)
+            return tokenize(input);
+
+        TokenBuffer[] parts = IntStream.range(0, bounds.length - 1)
+                .parallel()
+                .mapToObj(i -> tokenize(input, bounds[i], bounds[i + 1]))
+                .toArray(TokenBuffer[]::new);
+
+        int size = 0;
+        for (TokenBuffer part : parts)
+            size += part.size;
+
+        TokenBuffer buffer = new TokenBuffer(input, size);
+        for (TokenBuffer part : parts)
+            buffer.addAll(part);
+        return buffer;
+    }
+
+    /**
+     * Determine the bounds of the chunks in which to split the input. Each bound, except the first and last, is placed
+     * at the first whitespace character at or after an equal division of the input. Chunks that would become empty
+     * because no such whitespace exists are left out.
+     *
+     * @return The bounds, starting with 0 and ending with the length of the input.
+     */
+    private static int[] chunkBounds(CharSequence input, int chunks) {
+        int[] bounds = new int[Math.max(chunks, 1) + 1];
+        int count = 1;
+        for (int i = 1; i < chunks; ++i) {
+            int bound = Math.max((int) ((long) input.length() * i / chunks), bounds[count - 1] + 1);
+            while (bound < input.length() && !Character.isWhitespace(input.charAt(bound)))
+                ++bound;
+            if (bound >= input.length())
+                break;
+            bounds[count++] = bound;
+        }
+        bounds[count++] = input.length();
+        return Arrays.copyOf(bounds, count);
+    }
+
+    /**
+     * Tokenize a part of the input, storing the offsets relative to the entire input.
+     */
+    private static TokenBuffer tokenize(CharSequence input, int from, int to) {
+        TokenBuffer buffer = new TokenBuffer(input, INITIAL_CAPACITY);
+        PicoTokenizer tokenizer = new PicoTokenizer(
+                from == 0 && to == input.length() ? input : CharBuffer.wrap(input, from, to).slice());
+        for (Token.Type type = tokenizer.type(); type != null; type = tokenizer.type()) {
+            buffer.add(type, from + (int) tokenizer.start(), (int) (tokenizer.end() - tokenizer.start()));
+            tokenizer.advance();
+        }
+        return buffer;
+    }
+
+    /**
+     * Append a token to the buffer.
+     *
+     * @param type   The type of the token.
+     * @param start  The offset in the input at which the token starts.
+     * @param length The number of characters of the token.
+     */
+    void add(Token.Type type, int start, int length) {
+        this.moveGap(this.size);
+        if (this.size == this.types.length)
+            this.grow(this.size + 1);
+
+        this.types[this.size] = (byte) type.ordinal();
+        this.starts[this.size] = start;
+        this.lengths[this.size] = length;
+        this.gap = ++this.size;
+    }
+
+    /**
+     * Append all tokens of the given buffer, which tokenized the same input.
+     *
+     * @param other The buffer of which to append the tokens.
+     */
+    void addAll(TokenBuffer other) {
+        this.moveGap(this.size);
+        other.moveGap(other.size);
+        if (this.size + other.size > this.types.length)
+            this.grow(this.size + other.size);
+
+        System.arraycopy(other.types, 0, this.types, this.size, other.size);
+        System.arraycopy(other.starts, 0, this.starts, this.size, other.size);
+        System.arraycopy(other.lengths, 0, this.lengths, this.size, other.size);
+        this.size += other.size;
+        this.gap = this.size;
+    }
+
+    private void grow(int minimum) {
+        int capacity = Math.max(minimum, this.types.length * 2);
+        int after = this.size - this.gap;
+        int from = this.types.length - after;
+        int to = capacity - after;
+        byte[] types = Arrays.copyOf(this.types, capacity);
+        int[] starts = Arrays.copyOf(this.starts, capacity);
+        int[] lengths = Arrays.copyOf(this.lengths, capacity);
+        System.arraycopy(this.types, from, types, to, after);
+        System.arraycopy(this.starts, from, starts, to, after);
+        System.arraycopy(this.lengths, from, lengths, to, after);
+        this.types = types;
+        this.starts = starts;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Move the gap such that it starts at the given index, which takes time proportional to the distance it moves.
+     */
+    private void moveGap(int index) {
+        int shift = this.types.length - this.size;
+        if (index < this.gap) {
+            System.arraycopy(this.types, index, this.types, index + shift, this.gap - index);
+            System.arraycopy(this.lengths, index, this.lengths, index + shift, this.gap - index);
+            for (int i = this.gap - 1; i >= index; --i)
+                this.starts[i + shift] = this.starts[i] - this.length;
+        } else if (index > this.gap) {
+            System.arraycopy(this.types, this.gap + shift, this.types, this.gap, index - this.gap);
+            System.arraycopy(this.lengths, this.gap + shift, this.lengths, this.gap, index - this.gap);
+            for (int i = this.gap; i < index; ++i)
+                this.starts[i] = this.starts[i + shift] + this.length;
+        }
+        this.gap = index;
+    }
+
+    /**
+     * Update the tokens after a part of the input was replaced. Only the changed region is tokenized again: tokenizing
+     * restarts at the end of the last token that ends before the change, which yields the same tokens as tokenizing
+     * from the start as no Pico token looks further than a single character beyond its end. It stops as soon as a
+     * token after the change equals an old token at the same position relative to the end of the input, as all
+     * tokens from there onwards are unchanged apart from their offsets.
+     * <p>
+     * The tokens are updated in place: the gap is moved to the change, after which the replaced tokens are dropped
+     * from it and the new ones inserted. The unchanged tokens after the change are left as they are, so a change takes
+     * time proportional to the number of tokens it replaces and the number of tokens between it and the previous
+     * change, rather than to the size of the input.
+     * </p>
+     *
+     * @param offset   The offset at which the input was changed.
+     * @param removed  The number of characters that were removed at the offset.
+     * @param inserted The number of characters that were inserted at the offset instead.
+     * @return The range of tokens that was replaced.
+     */
+    Change relex(int offset, int removed, int inserted) {
+        int delta = inserted - removed;
+
+        // Find the last token that ends before the change, all tokens up to it are unaffected. Until the tokens are
+        // replaced, the offsets are those of the input before the change.
+        int low = 0;
+        int high = this.size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (this.end(middle) < offset)
+                low = middle + 1;
+            else
+                high = middle - 1;
+        }
+        int from = low;
+        int restart = from > 0 ? this.end(from - 1) : 0;
+
+        TokenBuffer replacement = new TokenBuffer(this.input, INITIAL_CAPACITY);
+        PicoTokenizer tokenizer = new PicoTokenizer(CharBuffer.wrap(this.input, restart, this.input.length()).slice());
+        int old = from;
+        for (Token.Type type = tokenizer.type(); type != null; type = tokenizer.type()) {
+            int start = restart + (int) tokenizer.start();
+            int length = (int) (tokenizer.end() - tokenizer.start());
+
+            if (start >= offset + inserted) {
+                while (old < this.size && this.startOf(old) < start - delta)
+                    ++old;
+                if (old < this.size && this.startOf(old) == start - delta
+                        && this.lengths[this.physical(old)] == length
+                        && this.types[this.physical(old)] == type.ordinal())
+                    break;
+            }
+            replacement.add(type, start, length);
+            tokenizer.advance();
+        }
+        if (tokenizer.type() == null)
+            old = this.size;
+
+        // Replace the tokens in [from, old) at the gap, the ones after it are relative to the end of the input
+        this.moveGap(from);
+        this.size -= old - from;
+        this.length += delta;
+        if (this.types.length - this.size < replacement.size)
+            this.grow(this.size + replacement.size);
+        System.arraycopy(replacement.types, 0, this.types, from, replacement.size);
+        System.arraycopy(replacement.starts, 0, this.starts, from, replacement.size);
+        System.arraycopy(replacement.lengths, 0, this.lengths, from, replacement.size);
+        this.size += replacement.size;
+        this.gap += replacement.size;
+
+        if (this.lineStarts != null)
+            this.relexLines(offset, removed, inserted);
+        return new Change(from, old - from, replacement.size);
+    }
+
+    /**
+     * Update the line starts after a part of the input was replaced.
+     */
+    private void relexLines(int offset, int removed, int inserted) {
+        // Lines start after a line break, so the starts in (offset, offset + removed] were removed
+        int first = this.lineStarts.search(offset + 1);
+        int end = this.lineStarts.search(offset + removed + 1);
+
+        PositionBuffer added = new PositionBuffer(16, 0);
+        for (int i = offset; i < offset + inserted; ++i)
+            if (this.input.charAt(i) == '\n')
+                added.add(i + 1);
+        this.lineStarts.replace(first, end, inserted - removed, added);
+    }
+
+    /**
+     * Obtain the input that was tokenized.
+     *
+     * @return The tokenized input.
+     */
+    public CharSequence input() {
+        return this.input;
+    }
+
+    /**
+     * Obtain the number of tokens.
+     *
+     * @return The number of tokens in the buffer.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Obtain the type of the token at the given index.
+     *
+     * @param index The index of the token.
+     * @return The type of the token.
+     */
+    public Token.Type type(int index) {
+        return PicoTokenizer.TYPES[this.types[this.physical(this.check(index))]];
+    }
+
+    /**
+     * Obtain the offset in the input at which the token at the given index starts.
+     *
+     * @param index The index of the token.
+     * @return The start offset of the token.
+     */
+    public int start(int index) {
+        return this.startOf(this.check(index));
+    }
+
+    /**
+     * Obtain the length of the token at the given index.
+     *
+     * @param index The index of the token.
+     * @return The number of characters of the token.
+     */
+    public int length(int index) {
+        return this.lengths[this.physical(this.check(index))];
+    }
+
+    /**
+     * Obtain the line on which the given offset in the input lies. Lines are separated by {@code '\n'}.
+     *
+     * @param offset The offset in the input.
+     * @return The line number, counting from 1.
+     */
+    public int line(int offset) {
+        return this.lineStarts().search(offset + 1);
+    }
+
+    /**
+     * Obtain the column at which the given offset in the input lies.
+     *
+     * @param offset The offset in the input.
+     * @return The column number within its line, counting from 1.
+     */
+    public int column(int offset) {
+        return offset - this.lineStarts().get(this.line(offset) - 1) + 1;
+    }
+
+    private PositionBuffer lineStarts() {
+        if (this.lineStarts == null) {
+            PositionBuffer starts = new PositionBuffer(16, this.length);
+            starts.add(0);
+            for (int i = 0; i < this.input.length(); ++i)
+                if (this.input.charAt(i) == '\n')
+                    starts.add(i + 1);
+            this.lineStarts = starts;
+        }
+        return this.lineStarts;
+    }
+
+    /**
+     * Obtain the value of the token at the given index. This creates a new String, use {@code contentEquals} to
+     * compare values without doing so.
+     *
+     * @param index The index of the token.
+     * @return The value of the token.
+     */
+    public String value(int index) {
+        return this.input.subSequence(this.start(index), this.end(index)).toString();
+    }
+
+    /**
+     * Checks whether the value of the token at the given index consists of exactly the given characters.
+     *
+     * @param index The index of the token.
+     * @param chars The characters to compare to.
+     * @return {@code true} if the value of the token is equal to the given characters, {@code false} otherwise.
+     */
+    public boolean contentEquals(int index, CharSequence chars) {
+        int start = this.start(index);
+        if (this.lengths[this.physical(index)] != chars.length())
+            return false;
+
+        for (int i = 0; i < chars.length(); ++i)
+            if (this.input.charAt(start + i) != chars.charAt(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Obtain a cursor that rests on the first token of the buffer.
+     *
+     * @return A new cursor over the tokens in this buffer.
+     */
+    public TokenCursor cursor() {
+        return new Cursor(0);
+    }
+
+    /**
+     * Obtain a cursor that rests on the token at the given index.
+     *
+     * @param index The index of the token, or the size of the buffer for a cursor at the end of the input.
+     * @return A new cursor over the tokens in this buffer.
+     */
+    TokenCursor cursor(int index) {
+        return new Cursor(index);
+    }
+
+    private int check(int index) {
+        if (index < 0 || index >= this.size)
+            throw new IndexOutOfBoundsException("Index " + index + " is not within [0, " + this.size + ")");
+        return index;
+    }
+
+    /**
+     * Determine the index in the columns of the token at the given index, which skips the gap.
+     */
+    private int physical(int index) {
+        return index < this.gap ? index : index + this.types.length - this.size;
+    }
+
+    /**
+     * Determine the start offset of the token at the given index, without checking the index.
+     */
+    private int startOf(int index) {
+        return index < this.gap ? this.starts[index] : this.starts[this.physical(index)] + this.length;
+    }
+
+    /**
+     * Determine the end offset of the token at the given index, without checking the index.
+     */
+    private int end(int index) {
+        return this.startOf(index) + this.lengths[this.physical(index)];
+    }
+
+    /**
+     * A range of tokens that was replaced by {@code relex}.
+     */
+    static final class Change {
+
+        /**
+         * The index of the first token that was replaced.
+         */
+        final int from;
+
+        /**
+         * The number of tokens that were removed.
+         */
+        final int removed;
+
+        /**
+         * The number of tokens that were inserted instead.
+         */
+        final int inserted;
+
+        private Change(int from, int removed, int inserted) {
+            this.from = from;
+            this.removed = removed;
+            this.inserted = inserted;
+        }
+    }
+
+    /**
+     * Cursor over the tokens of the buffer.
+     */
+    private class Cursor implements TokenCursor {
+
+        private int index;
+
+        private Cursor(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public boolean advance() {
+            if (this.index < size)
+                ++this.index;
+            return this.index < size;
+        }
+
+        @Override
+        public Token.Type type() {
+            return this.index < size ? PicoTokenizer.TYPES[types[physical(this.index)]] : null;
+        }
+
+        @Override
+        public long start() {
+            return this.index < size ? startOf(this.index) : length;
+        }
+
+        @Override
+        public long end() {
+            return this.index < size ? TokenBuffer.this.end(this.index) : length;
+        }
+
+        @Override
+        public int line() {
+            return TokenBuffer.this.line((int) this.start());
+        }
+
+        @Override
+        public int column() {
+            return TokenBuffer.this.column((int) this.start());
+        }
+
+        @Override
+        public boolean contentEquals(CharSequence chars) {
+            return this.index < size && TokenBuffer.this.contentEquals(this.index, chars);
+        }
+    }
+}
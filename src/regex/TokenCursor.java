@@ -0,0 +1,62 @@
+package regex;
+
+import regex.PicoTokenizer.Token;
+
+/**
+ * Cursor over a sequence of Pico tokens. The cursor rests on the current token and exposes it as primitive values, so
+ * iterating over the tokens doesn't require an object per token.
+ */
+public interface TokenCursor {
+
+    /**
+     * Move the cursor to the next token.
+     *
+     * @return {@code true} if the cursor rests on a token, {@code false} if all tokens have been read.
+     */
+    boolean advance();
+
+    /**
+     * Obtain the type of the token the cursor rests on.
+     *
+     * @return The type of the current token, or null if all tokens have been read.
+     */
+    Token.Type type();
+
+    /**
+     * Obtain the offset in the input at which the token the cursor rests on starts.
+     *
+     * @return The start offset of the current token, or the length of the input if all tokens have been read.
+     */
+    long start();
+
+    /**
+     * Obtain the offset in the input at which the token the cursor rests on ends.
+     *
+     * @return The end offset (exclusive) of the current token, or the length of the input if all tokens have been
+     * read.
+     */
+    long end();
+
+    /**
+     * Obtain the line on which the token the cursor rests on starts. Lines are separated by {@code '\n'}.
+     *
+     * @return The line number of {@code start}, counting from 1.
+     */
+    int line();
+
+    /**
+     * Obtain the column at which the token the cursor rests on starts.
+     *
+     * @return The column number of {@code start} within its line, counting from 1.
+     */
+    int column();
+
+    /**
+     * Checks whether the value of the token the cursor rests on consists of exactly the given characters, without
+     * creating a String for it.
+     *
+     * @param chars The characters to compare to.
+     * @return {@code true} if the value of the current token is equal to the given characters, {@code false} otherwise.
+     */
+    boolean contentEquals(CharSequence chars);
+}
@@ -0,0 +1,435 @@
+package regex;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Finds consecutive matches of a {@code TaggedAutomaton} by stepping through the automaton one character at a time. This
+ * follows the semantics of {@code AutomatonMatcher.find}: from the current position the longest match is taken, and
+ * if there is no match at all the position is advanced by a single character.
+ * <p>
+ * The input is accessed through a window. Subclasses decide how the window is filled, which allows the input to be
+ * read incrementally. Only the characters from the start of the token that is currently being matched onwards need to
+ * be kept, so the size of the window is bounded by the buffer size and the length of the longest token rather than by
+ * the size of the input.
+ * </p>
+ * <p>
+ * The scanner keeps track of the line on which each match starts. Only the characters between matches are inspected
+ * for line breaks, so matches are assumed not to span multiple lines.
+ * </p>
+ */
+abstract class TokenScanner {
+
+    /**
+     * The automaton of which the matches are found.
+     */
+    private final TaggedAutomaton automaton;
+
+    /**
+     * The tag of the accepting state in which the last match ended.
+     */
+    private int tag = TaggedAutomaton.NO_TAG;
+
+    /**
+     * The number of characters that are available in the window.
+     */
+    protected int limit;
+
+    /**
+     * The offset in the input of the first character in the window.
+     */
+    private long windowOffset;
+
+    /**
+     * The start of the last match, relative to the window.
+     */
+    private int start;
+
+    /**
+     * The end (exclusive) of the last match, relative to the window. Initially no match has been found, which is
+     * represented by -1.
+     */
+    private int end = -1;
+
+    /**
+     * The line on which the last match starts, counting from 1.
+     */
+    private int line = 1;
+
+    /**
+     * The offset in the input of the first character of the line on which the last match starts.
+     */
+    private long lineStart;
+
+    protected TokenScanner(TaggedAutomaton automaton) {
+        this.automaton = automaton;
+    }
+
+    /**
+     * Obtain the character at the given index in the window.
+     *
+     * @param index The index relative to the window, which lies between 0 and {@code limit}.
+     * @return The character at the given index.
+     */
+    protected abstract char charAt(int index);
+
+    /**
+     * Obtain the characters between the given indices of the window as a String.
+     *
+     * @param start The start index relative to the window.
+     * @param end   The end index (exclusive) relative to the window.
+     * @return The characters between the given indices.
+     */
+    protected abstract String substring(int start, int end);
+
+    /**
+     * Make more characters available in the window. All characters from index {@code keep} onwards need to remain
+     * available, those before it may be discarded.
+     *
+     * @param keep The index relative to the window of the first character that needs to remain available.
+     * @return The number of characters by which the window was shifted, or -1 if there is no more input.
+     * @throws IOException When the input couldn't be read.
+     */
+    protected abstract int refill(int keep) throws IOException;
+
+    /**
+     * Find the next match, starting at the end of the last match.
+     *
+     * @return {@code true} if a match was found, {@code false} if the end of the input is reached.
+     */
+    public boolean find() {
+        int begin = this.end < 0 ? 0 : this.end == this.start ? this.end + 1 : this.end;
+        int initial = this.automaton.getInitialState();
+        boolean initialAccepts = this.automaton.isAccept(initial);
+
+        while (true) {
+            if (begin >= this.limit) {
+                int shift = this.shift(Math.min(begin, this.limit));
+                if (shift < 0) {
+                    if (initialAccepts && begin == this.limit)
+                        return this.setMatch(begin, begin, this.automaton.getTag(initial));
+
+                    // Rest at the end of the input
+                    this.setMatch(this.limit, this.limit, TaggedAutomaton.NO_TAG);
+                    return false;
+                }
+                begin -= shift;
+                continue;
+            }
+
+            int state = initial;
+            int matchEnd = initialAccepts ? begin : -1;
+            int matchTag = this.automaton.getTag(initial);
+            int index = begin;
+            while (true) {
+                if (index >= this.limit) {
+                    int shift = this.shift(begin);
+                    if (shift < 0)
+                        break;
+                    begin -= shift;
+                    index -= shift;
+                    if (matchEnd >= 0) matchEnd -= shift;
+                    continue;
+                }
+
+                state = this.automaton.step(state, this.charAt(index));
+                if (state == -1)
+                    break;
+
+                ++index;
+                if (this.automaton.isAccept(state)) {
+                    matchEnd = index;
+                    matchTag = this.automaton.getTag(state);
+                }
+            }
+
+            if (matchEnd >= 0)
+                return this.setMatch(begin, matchEnd, matchTag);
+
+            if (this.charAt(begin) == '\n') {
+                ++this.line;
+                this.lineStart = this.windowOffset + begin + 1;
+            }
+            ++begin;
+        }
+    }
+
+    /**
+     * Obtain the last match as a String.
+     *
+     * @return The characters of the last match.
+     */
+    public String group() {
+        return this.substring(this.start, this.end);
+    }
+
+    /**
+     * Checks whether the last match consists of exactly the given characters.
+     *
+     * @param chars The characters to compare to.
+     * @return {@code true} if the last match is equal to the given characters, {@code false} otherwise.
+     */
+    public boolean contentEquals(CharSequence chars) {
+        if (chars.length() != this.end - this.start)
+            return false;
+
+        for (int i = 0; i < chars.length(); ++i)
+            if (this.charAt(this.start + i) != chars.charAt(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Obtain the offset in the input at which the last match starts.
+     *
+     * @return The start offset of the last match.
+     */
+    public long start() {
+        return this.windowOffset + this.start;
+    }
+
+    /**
+     * Obtain the offset in the input at which the last match ends.
+     *
+     * @return The end offset (exclusive) of the last match.
+     */
+    public long end() {
+        return this.windowOffset + this.end;
+    }
+
+    /**
+     * Obtain the line on which the last match starts.
+     *
+     * @return The line number, counting from 1.
+     */
+    public int line() {
+        return this.line;
+    }
+
+    /**
+     * Obtain the column at which the last match starts.
+     *
+     * @return The column number, counting from 1.
+     */
+    public int column() {
+        return (int) (this.start() - this.lineStart) + 1;
+    }
+
+    /**
+     * Obtain the tag of the last match, which identifies the pattern that was matched.
+     *
+     * @return The tag of the accepting state in which the last match ended.
+     */
+    public int tag() {
+        return this.tag;
+    }
+
+    private boolean setMatch(int start, int end, int tag) {
+        this.start = start;
+        this.end = end;
+        this.tag = tag;
+        return true;
+    }
+
+    /**
+     * Refill the window, keeping all characters from the given index onwards, and update the bookkeeping of the
+     * window accordingly.
+     *
+     * @param keep The index relative to the window of the first character that needs to remain available.
+     * @return The number of characters by which the window was shifted, or -1 if there is no more input.
+     */
+    private int shift(int keep) {
+        try {
+            int shift = this.refill(keep);
+            if (shift > 0) {
+                this.windowOffset += shift;
+                this.start -= shift;
+                this.end -= shift;
+            }
+            return shift;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Scanner over a {@code CharSequence} that is available in its entirety.
+     */
+    static class CharSequenceScanner extends TokenScanner {
+
+        private final CharSequence sequence;
+
+        CharSequenceScanner(TaggedAutomaton automaton, CharSequence sequence) {
+            super(automaton);
+            this.sequence = sequence;
+            this.limit = sequence.length();
+        }
+
+        @Override
+        protected char charAt(int index) {
+            return this.sequence.charAt(index);
+        }
+
+        @Override
+        protected String substring(int start, int end) {
+            return this.sequence.subSequence(start, end).toString();
+        }
+
+        @Override
+        protected int refill(int keep) {
+            return -1;
+        }
+    }
+
+    /**
+     * Scanner that reads its input incrementally from a {@code Reader} into a fixed size buffer. The buffer only grows
+     * when a single token doesn't fit in it.
+     */
+    static class ReaderScanner extends TokenScanner {
+
+        /**
+         * The default size of the buffer, in characters.
+         */
+        static final int DEFAULT_BUFFER_SIZE = 8192;
+
+        private final Reader reader;
+
+        private char[] buffer;
+
+        /**
+         * Indicates whether the reader has reached the end of its input.
+         */
+        private boolean exhausted;
+
+        ReaderScanner(TaggedAutomaton automaton, Reader reader, int bufferSize) {
+            super(automaton);
+            if (bufferSize <= 0)
+                throw new IllegalArgumentException("The buffer size must be positive");
+
+            this.reader = reader;
+            this.buffer = new char[bufferSize];
+        }
+
+        @Override
+        protected char charAt(int index) {
+            return this.buffer[index];
+        }
+
+        @Override
+        protected String substring(int start, int end) {
+            return new String(this.buffer, start, end - start);
+        }
+
+        @Override
+        protected int refill(int keep) throws IOException {
+            if (this.exhausted)
+                return -1;
+
+            // Discard everything before keep, and grow the buffer only if that doesn't free any space
+            if (keep > 0) {
+                System.arraycopy(this.buffer, keep, this.buffer, 0, this.limit - keep);
+                this.limit -= keep;
+            } else if (this.limit == this.buffer.length) {
+                char[] grown = new char[this.buffer.length * 2];
+                System.arraycopy(this.buffer, 0, grown, 0, this.limit);
+                this.buffer = grown;
+            }
+
+            int read;
+            do {
+                read = this.reader.read(this.buffer, this.limit, this.buffer.length - this.limit);
+            } while (read == 0);
+
+            if (read < 0) {
+                this.exhausted = true;
+                return keep > 0 ? keep : -1;
+            }
+
+            this.limit += read;
+            return keep;
+        }
+    }
+
+    /**
+     * Scanner over a memory mapped file in which every byte represents a single character. The file is mapped in
+     * segments, as a single mapping can't exceed 2 GB. When a token crosses the end of a segment, the next segment is
+     * mapped starting at that token such that the token is available in its entirety.
+     * <p>
+     * The file is only open while a segment is mapped, as the mapping remains valid without it. A scanner that isn't
+     * read to the end, such as that of a recognizer that stops at the first error, therefore holds no file descriptor.
+     * </p>
+     */
+    static class MappedScanner extends TokenScanner {
+
+        /**
+         * The default maximum size of a single segment, in bytes.
+         */
+        static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+        private final Path path;
+
+        private final long size;
+
+        private final int segmentSize;
+
+        /**
+         * The offset in the file of the currently mapped segment.
+         */
+        private long segmentOffset;
+
+        private MappedByteBuffer segment;
+
+        MappedScanner(TaggedAutomaton automaton, Path path, int segmentSize) throws IOException {
+            super(automaton);
+            if (segmentSize <= 0)
+                throw new IllegalArgumentException("The segment size must be positive");
+
+            this.path = path;
+            this.segmentSize = segmentSize;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                this.size = channel.size();
+                this.map(channel, 0, segmentSize);
+            }
+        }
+
+        @Override
+        protected char charAt(int index) {
+            return (char) (this.segment.get(index) & 0xFF);
+        }
+
+        @Override
+        protected String substring(int start, int end) {
+            return new AsciiCharSequence(this.segment).subSequence(start, end).toString();
+        }
+
+        @Override
+        protected int refill(int keep) throws IOException {
+            if (this.segmentOffset + this.limit >= this.size)
+                return -1;
+
+            // A token that spans the entire segment requires a larger segment
+            int length = keep == 0 ? (int) Math.min((long) this.limit * 2, Integer.MAX_VALUE) : this.segmentSize;
+            if (keep == 0 && length == this.limit)
+                throw new IOException("Token at offset " + this.segmentOffset + " exceeds the maximum segment size");
+
+            try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+                this.map(channel, this.segmentOffset + keep, length);
+            }
+            return keep;
+        }
+
+        /**
+         * Map the segment starting at the given offset, which is truncated to the end of the file.
+         */
+        private void map(FileChannel channel, long offset, int length) throws IOException {
+            this.segmentOffset = offset;
+            this.limit = (int) Math.min(length, this.size - offset);
+            this.segment = channel.map(FileChannel.MapMode.READ_ONLY, offset, this.limit);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package tests;
+
+import regex.BatchRecognizer;
+import regex.PicoRec;
+
+import java.io.IOException;
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tests for the {@code BatchRecognizer}.
+ */
+public class BatchRecognizerTest {
+
+    @Test
+    public void testRecognizeExamples() throws IOException {
+        List<Path> files = BatchRecognizer.findFiles(Paths.get("examples"));
+        BatchRecognizer.BatchResult result = new BatchRecognizer(new ForkJoinPool(4)).recognize(Paths.get("examples"));
+        assertEqual(result.files.size(), files.size());
+
+        int recognized = 0;
+        long bytes = 0;
+        for (int i = 0; i < files.size(); ++i) {
+            BatchRecognizer.FileResult file = result.files.get(i);
+            String program = new String(Files.readAllBytes(files.get(i)), StandardCharsets.ISO_8859_1);
+            PicoRec.Result expected = new PicoRec(program).check();
+            assertEqual(file.file, files.get(i));
+            assertEqual(file.isRecognized(), expected.isOk());
+            if (!expected.isOk())
+                assertEqual(file.error, expected.toString());
+            if (expected.isOk()) ++recognized;
+            bytes += program.length();
+        }
+        assertEqual(result.recognized(), recognized);
+        assertEqual(result.failures().size(), files.size() - recognized);
+        assertEqual(result.bytes(), bytes);
+    }
+
+    @Test
+    public void testRecognizeMapped() throws IOException {
+        // A program that is large enough to be mapped rather than read
+        StringBuilder program = new StringBuilder("begin declare a,|\n");
+        while (program.length() < BatchRecognizer.MAPPED_SIZE)
+            program.append("a := (a + 1) * -a;\n");
+        Path valid = Files.createTempFile("valid", BatchRecognizer.EXTENSION);
+        Path invalid = Files.createTempFile("invalid", BatchRecognizer.EXTENSION);
+        try {
+            String broken = program + "a := ;\nend";
+            Files.write(valid, program.append("end").toString().getBytes(StandardCharsets.ISO_8859_1));
+            Files.write(invalid, broken.getBytes(StandardCharsets.ISO_8859_1));
+            BatchRecognizer.BatchResult result = new BatchRecognizer().recognize(Arrays.asList(valid, invalid));
+            assertEqual(result.recognized(), 1);
+            assertEqual(result.files.get(1).error, new PicoRec(broken).check().toString());
+        } finally {
+            Files.delete(valid);
+            Files.delete(invalid);
+        }
+    }
+
+
+    public static void main(String args[]){
+
+        BatchRecognizerTest testInstance = new BatchRecognizerTest();
+        for(Method method : BatchRecognizerTest.class.getMethods()){
+            if(method.getAnnotation(Test.class) != null)
+                try {
+                    try {
+                        method.setAccessible(true);
+                        method.invoke(testInstance);
+                        System.out.println("Test " + method.getName() + " succeeded");
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }catch(Throwable t) {
+                    System.out.println("Test " + method.getName() + " failed (" + t.getMessage() + ")");
+                }
+        }
+    }
+
+
+    @Documented
+    @Inherited
+    @Target({ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    private @interface Test{ }
+
+    private static void fail(){
+        throw new AssertionError();
+    }
+
+    private static void assertEqual(Object given, Object expected){
+        if(!given.equals(expected))
+            throw new AssertEqualsException(given, expected);
+    }
+
+
+    private static class AssertEqualsException extends RuntimeException{
+        private AssertEqualsException(Object given, Object expected){
+            super("Expected "+expected+" was given "+given);
+        }
+    }
+
+}
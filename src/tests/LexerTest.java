@@ -0,0 +1,125 @@
+package tests;
+
+import regex.Lexer;
+import regex.PicoTokenizer;
+import regex.RegexBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Tests for the {@code Lexer}.
+ */
+public class LexerTest {
+
+    private static final String PROGRAM = "begin declare a,b2,| a:=(b2+10)*-a; end";
+
+    @Test
+    public void testPriority() {
+        RegexBuilder spec = new RegexBuilder();
+        spec.add("IF", "if");
+        spec.add("LETTER", "[a-z]");
+        spec.add("ID", "LETTER+");
+        spec.add("NUMBER", "[0-9]+");
+        Lexer lexer = new Lexer(spec, "IF", "ID", "NUMBER");
+
+        // The longest match is taken, and the token that is defined first if it has multiple
+        Lexer.Cursor cursor = lexer.tokenize("if iffy 42 i");
+        assertEqual(cursor.name(), "IF");
+        cursor.advance();
+        assertEqual(cursor.name(), "ID");
+        assertEqual(cursor.value(), "iffy");
+        cursor.advance();
+        assertEqual(cursor.tag(), lexer.tag("NUMBER"));
+        assertEqual(cursor.start(), 8L);
+        cursor.advance();
+        assertEqual(cursor.name(), "ID");
+        assertEqual(cursor.advance(), false);
+        if (cursor.name() != null) fail();
+    }
+
+    @Test
+    public void testPicoTokens() throws IOException {
+        RegexBuilder spec = new RegexBuilder(new File("examples/pico.tokens"));
+        String[] names = new String[PicoTokenizer.Token.Type.values().length];
+        for (PicoTokenizer.Token.Type type : PicoTokenizer.Token.Type.values())
+            names[type.ordinal()] = type.name();
+        Lexer lexer = new Lexer(spec, names);
+
+        assertSameTokens(lexer.tokenize(PROGRAM), new PicoTokenizer(PROGRAM));
+        assertSameTokens(lexer.tokenize(new StringReader(PROGRAM)), new PicoTokenizer(PROGRAM));
+        for (int i = 1; i <= 4; ++i) {
+            String program = new String(Files.readAllBytes(Paths.get("examples/valid" + i + ".pico")),
+                    StandardCharsets.ISO_8859_1);
+            assertSameTokens(lexer.tokenize(program), new PicoTokenizer(program));
+            assertSameTokens(lexer.tokenize(Paths.get("examples/valid" + i + ".pico")), new PicoTokenizer(program));
+        }
+    }
+
+    private static void assertSameTokens(Lexer.Cursor cursor, PicoTokenizer tokenizer) {
+        do {
+            assertEqual(String.valueOf(cursor.name()), String.valueOf(tokenizer.type()));
+            assertEqual(cursor.start(), tokenizer.start());
+            assertEqual(cursor.end(), tokenizer.end());
+            assertEqual(cursor.line(), tokenizer.line());
+            tokenizer.advance();
+        } while (cursor.advance());
+        assertEqual(tokenizer.type() == null, true);
+    }
+
+
+    public static void main(String args[]){
+
+        LexerTest testInstance = new LexerTest();
+        for(Method method : LexerTest.class.getMethods()){
+            if(method.getAnnotation(Test.class) != null)
+                try {
+                    try {
+                        method.setAccessible(true);
+                        method.invoke(testInstance);
+                        System.out.println("Test " + method.getName() + " succeeded");
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }catch(Throwable t) {
+                    System.out.println("Test " + method.getName() + " failed (" + t.getMessage() + ")");
+                }
+        }
+    }
+
+
+    @Documented
+    @Inherited
+    @Target({ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    private @interface Test{ }
+
+    private static void fail(){
+        throw new AssertionError();
+    }
+
+    private static void assertEqual(Object given, Object expected){
+        if(!given.equals(expected))
+            throw new AssertEqualsException(given, expected);
+    }
+
+
+    private static class AssertEqualsException extends RuntimeException{
+        private AssertEqualsException(Object given, Object expected){
+            super("Expected "+expected+" was given "+given);
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+package tests;
+
+import regex.PicoAst;
+import regex.PicoJit;
+import regex.PicoProgram;
+import regex.PicoRec;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+/**
+ * Tests for the {@code PicoProgram} evaluator.
+ */
+public class PicoProgramTest {
+
+    @Test
+    public void testEvaluate() {
+        Map<String, Long> variables = PicoProgram.compile(
+                "begin declare a,b,| a := 2 + 3 * 4; b := -(a + 1) * 2; a := a * a; c := b; end").evaluate();
+        assertEqual(variables.toString(), "{a=196, b=-30, c=-30}");
+    }
+
+    @Test
+    public void testRegisters() {
+        PicoProgram program = PicoProgram.compile("begin declare x,| y := x + 1; x := y; end");
+        assertEqual(program.variables(), 2);
+        assertEqual(program.variable(1), "y");
+        assertEqual(program.execute()[0], 1L);
+        // The sum is stored in the variable directly, the constant uses the only temporary register
+        assertEqual(program.toString(), "r2 = 1\nr1 = r0 + r2\nr0 = r1\n");
+    }
+    @Test
+    public void testJit() {
+        String source = "begin declare a,b,| a := a + 2 * b; b := -(a + 1) * 2; end";
+        PicoJit.Compiled compiled = PicoJit.compile(source);
+        assertEqual(compiled.isCompiled(), true);
+        assertEqual(compiled.evaluate(3, 4).toString(), "{a=11, b=-24}");
+        assertEqual(compiled.evaluate().toString(), PicoProgram.compile(source).evaluate().toString());
+
+        // Identical sources share the compiled program
+        assertEqual(PicoJit.compile(source) == compiled, true);
+    }
+
+    @Test
+    public void testLongChain() {
+        // The sum nests 10,000 levels deep on its left, which must not grow the stack
+        StringBuilder source = new StringBuilder("begin declare a,b,| a := 1; b := a");
+        for (int i = 0; i < 10000; ++i)
+            source.append(" + a");
+        source.append(" * -a; end");
+
+        assertEqual(PicoProgram.compile(source.toString()).evaluate().toString(), "{a=1, b=9999}");
+        assertEqual(PicoJit.compile(source.toString()).evaluate().toString(), "{a=1, b=9999}");
+        String tree = new PicoRec(source.toString()).parse(new PicoAst()).toString();
+        assertEqual(tree.startsWith("(PROGRAM (DECLARATION a) (DECLARATION b) (ASSIGNMENT a 1) (ASSIGNMENT b (ADD (ADD"),
+                true);
+        assertEqual(tree.endsWith(" a) (MULTIPLY a (NEGATE a)))))"), true);
+    }
+
+
+    public static void main(String args[]){
+
+        PicoProgramTest testInstance = new PicoProgramTest();
+        for(Method method : PicoProgramTest.class.getMethods()){
+            if(method.getAnnotation(Test.class) != null)
+                try {
+                    try {
+                        method.setAccessible(true);
+                        method.invoke(testInstance);
+                        System.out.println("Test " + method.getName() + " succeeded");
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }catch(Throwable t) {
+                    System.out.println("Test " + method.getName() + " failed (" + t.getMessage() + ")");
+                }
+        }
+    }
+
+
+    @Documented
+    @Inherited
+    @Target({ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    private @interface Test{ }
+
+    private static void fail(){
+        throw new AssertionError();
+    }
+
+    private static void assertEqual(Object given, Object expected){
+        if(!given.equals(expected))
+            throw new AssertEqualsException(given, expected);
+    }
+
+
+    private static class AssertEqualsException extends RuntimeException{
+        private AssertEqualsException(Object given, Object expected){
+            super("Expected "+expected+" was given "+given);
+        }
+    }
+
+}
@@ -0,0 +1,257 @@
+package tests;
+
+import regex.DfaRec;
+import regex.Grammar;
+import regex.IncrementalRec;
+import regex.PicoAst;
+import regex.PicoRec;
+import regex.PicoTokenizer.Token;
+import regex.TableRec;
+import regex.TokenBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the {@code PicoRec} recognizer.
+ */
+public class PicoRecTest {
+
+    private static final String VALID = "begin declare a,b,\n|\na := (a + 1) * b;\nb := -a;\nend";
+
+    private static final String INVALID = "begin declare a b,\n|\na := ;\nb := -a;\nc = 1;\nend";
+
+    @Test
+    public void testRecognize() {
+        new PicoRec(VALID).recognize();
+    }
+
+    @Test
+    public void testRecognizeFails() {
+        try {
+            new PicoRec(INVALID).recognize();
+            fail();
+        } catch (PicoRec.ParseException e) {
+            assertEqual(e.getCause().getMessage(), "Expected \"DECLARATION_END\" but received \"IDENTIFIER\"");
+        }
+    }
+
+    @Test
+    public void testCheck() {
+        assertEqual(new PicoRec(VALID).check(), PicoRec.Result.OK);
+
+        PicoRec.Result result = new PicoRec(INVALID).check();
+        assertEqual(result.kind, PicoRec.Result.Kind.MISMATCH);
+        assertEqual(result.error.offset, 16L);
+        assertEqual(result.error.expected, Token.Type.DECLARATION_END);
+        assertEqual(result.error.actual, Token.Type.IDENTIFIER);
+
+        assertEqual(new PicoRec("begin declare |").check().kind, PicoRec.Result.Kind.END_OF_INPUT);
+    }
+
+    @Test
+    public void testRecognizeAll() {
+        assertEqual(new PicoRec(VALID).recognizeAll().isEmpty(), true);
+
+        List<PicoRec.Diagnostic> diagnostics = new PicoRec(INVALID).recognizeAll();
+        assertEqual(diagnostics.size(), 3);
+        assertEqual(diagnostics.get(0).line, 1);
+        assertEqual(diagnostics.get(0).column, 17);
+        assertEqual(diagnostics.get(1).line, 3);
+        assertEqual(diagnostics.get(1).actual, Token.Type.STATEMENT_END);
+        assertEqual(diagnostics.get(2).line, 5);
+        assertEqual(diagnostics.get(2).expected, Token.Type.ASSIGN);
+    }
+
+    @Test
+    public void testRecognizeAllAtEndOfInput() {
+        List<PicoRec.Diagnostic> diagnostics = new PicoRec("begin declare | a := 1;").recognizeAll();
+        assertEqual(diagnostics.size(), 1);
+        assertEqual(diagnostics.get(0).actual == null, true);
+        assertEqual(diagnostics.get(0).offset, 23L);
+    }
+
+    @Test
+    public void testRecognizePath() throws IOException {
+        // The keywords of valid3 and valid4 aren't separated, so the longest match makes them identifiers
+        String[] names = {"valid1", "valid2", "valid3", "valid4", "invalid1", "invalid2", "invalid3"};
+        boolean[] valid = {true, true, false, false, false, false, false};
+        for (int i = 0; i < names.length; ++i) {
+            String name = names[i];
+            Path path = Paths.get("examples/" + name + ".pico");
+            String program = new String(Files.readAllBytes(path), StandardCharsets.ISO_8859_1);
+
+            // A mapped file is recognized exactly like its content
+            PicoRec.Result result = new PicoRec(path).check();
+            assertEqual(result.toString(), new PicoRec(program).check().toString());
+            assertEqual(result.isOk(), valid[i]);
+            assertEqual(new PicoRec(path).recognizeAll().toString(), new PicoRec(program).recognizeAll().toString());
+        }
+    }
+
+    @Test
+    public void testTableRec() throws IOException {
+        Grammar grammar = new Grammar(new File("examples/pico.grammar"));
+        assertEqual(new TableRec(grammar, VALID).check(), PicoRec.Result.OK);
+
+        PicoRec.Result result = new TableRec(grammar, INVALID).check();
+        assertEqual(result.error.offset, 16L);
+        assertEqual(result.error.expected, Token.Type.DECLARATION_END);
+
+        // Nesting far deeper than the recursive descent recognizer can handle
+        StringBuilder program = new StringBuilder("begin declare a,| a := ");
+        for (int i = 0; i < 1000000; ++i)
+            program.append("(-a+");
+        program.append('1');
+        for (int i = 0; i < 1000000; ++i)
+            program.append(')');
+        assertEqual(new TableRec(grammar, program.append("; end").toString()).check(), PicoRec.Result.OK);
+    }
+
+    @Test
+    public void testDfaRec() {
+        assertEqual(new DfaRec(VALID).check(), PicoRec.Result.OK);
+        assertEqual(new DfaRec(INVALID).check().error.offset, 16L);
+
+        // Nesting beyond the bound is recognized by falling back
+        String nested = "begin declare | a := ((1)); end";
+        assertEqual(new DfaRec(nested, 1).check(), PicoRec.Result.OK);
+        assertEqual(new DfaRec(nested + " ignored", 2).check(), PicoRec.Result.OK);
+    }
+
+    @Test
+    public void testParse() {
+        PicoAst ast = new PicoRec(VALID).parse(new PicoAst());
+        assertEqual(ast.toString(), "(PROGRAM (DECLARATION a) (DECLARATION b) (ASSIGNMENT a (MULTIPLY (ADD a 1) b))"
+                + " (ASSIGNMENT b (NEGATE a)))");
+        assertEqual(ast.value(ast.firstChild(ast.root())), "a");
+
+        // The arena is reused, and the tree follows the conventional precedence
+        new PicoRec("begin declare | x := -a * b + c * 2 + 3; end").parse(ast);
+        assertEqual(ast.toString(), "(PROGRAM (ASSIGNMENT x (ADD (ADD (MULTIPLY (NEGATE a) b) (MULTIPLY c 2)) 3)))");
+    }
+
+    @Test
+    public void testIncremental() {
+        IncrementalRec rec = new IncrementalRec(VALID);
+        assertEqual(rec.check(), PicoRec.Result.OK);
+
+        // Break the second statement, the error is reported like a full recognition would
+        int offset = VALID.indexOf("-a");
+        PicoRec.Result result = rec.edit(offset, 1, "*");
+        assertEqual(result.toString(), new PicoRec(rec.text().toString()).check().toString());
+        assertEqual(result.error.line, 4);
+
+        assertEqual(rec.edit(offset, 2, "-(1 + a)"), PicoRec.Result.OK);
+        assertEqual(rec.tokens().size(), TokenBuffer.tokenize(rec.text().toString()).size());
+    }
+
+    @Test
+    public void testIncrementalEdits() {
+        StringBuilder program = new StringBuilder("begin declare a,|\n");
+        for (int i = 0; i < 100; ++i)
+            program.append("a := a + ").append(i).append(";\n");
+        program.append("end");
+        IncrementalRec rec = new IncrementalRec(program);
+
+        // Edit back and forth through the program, such that the gaps move both ways
+        for (int i = 0; i < 100; ++i) {
+            int offset = program.indexOf("a + ", (i * 37 % 100) * 12 + 18);
+            String inserted = i % 3 == 0 ? "* (" : i % 3 == 1 ? ";\n" : "b";
+            program.replace(offset, offset + 1, inserted);
+            PicoRec.Result result = rec.edit(offset, 1, inserted);
+
+            assertEqual(rec.text().toString(), program.toString());
+            assertEqual(result.toString(), new PicoRec(program.toString()).check().toString());
+            TokenBuffer expected = TokenBuffer.tokenize(program.toString());
+            assertEqual(rec.tokens().size(), expected.size());
+            for (int j = 0; j < expected.size(); ++j) {
+                assertEqual(rec.tokens().type(j), expected.type(j));
+                assertEqual(rec.tokens().start(j), expected.start(j));
+                assertEqual(rec.tokens().line(expected.start(j)), expected.line(expected.start(j)));
+            }
+            assertSameStatements(rec, new IncrementalRec(program));
+
+            program.replace(offset, offset + inserted.length(), "a");
+            assertEqual(rec.edit(offset, inserted.length(), "a"), PicoRec.Result.OK);
+        }
+    }
+
+    @Test
+    public void testIncrementalTrailingStatement() {
+        // The program ends with a ";", so the last statement is empty
+        StringBuilder program = new StringBuilder("begin declare a,|\na := 1;\na := 2;");
+        IncrementalRec rec = new IncrementalRec(program);
+        for (int i = 0; i < 50; ++i) {
+            int offset = program.length() - 2;
+            String inserted = String.valueOf(i % 10);
+            program.replace(offset, offset + 1, inserted);
+            assertEqual(rec.edit(offset, 1, inserted).toString(), new PicoRec(program.toString()).check().toString());
+            assertSameStatements(rec, new IncrementalRec(program));
+        }
+        assertEqual(rec.statements().length, 3);
+    }
+
+    private static void assertSameStatements(IncrementalRec given, IncrementalRec expected) {
+        assertEqual(Arrays.toString(given.statements()), Arrays.toString(expected.statements()));
+        assertEqual(Arrays.toString(given.stops()), Arrays.toString(expected.stops()));
+    }
+
+
+    public static void main(String args[]){
+
+        PicoRecTest testInstance = new PicoRecTest();
+        for(Method method : PicoRecTest.class.getMethods()){
+            if(method.getAnnotation(Test.class) != null)
+                try {
+                    try {
+                        method.setAccessible(true);
+                        method.invoke(testInstance);
+                        System.out.println("Test " + method.getName() + " succeeded");
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }catch(Throwable t) {
+                    System.out.println("Test " + method.getName() + " failed (" + t.getMessage() + ")");
+                }
+        }
+    }
+
+
+    @Documented
+    @Inherited
+    @Target({ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    private @interface Test{ }
+
+    private static void fail(){
+        throw new AssertionError();
+    }
+
+    private static void assertEqual(Object given, Object expected){
+        if(!given.equals(expected))
+            throw new AssertEqualsException(given, expected);
+    }
+
+
+    private static class AssertEqualsException extends RuntimeException{
+        private AssertEqualsException(Object given, Object expected){
+            super("Expected "+expected+" was given "+given);
+        }
+    }
+
+}
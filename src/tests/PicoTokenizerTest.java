@@ -0,0 +1,156 @@
+package tests;
+
+import regex.PicoRec;
+import regex.PicoTokenizer;
+import regex.TokenBuffer;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for the {@code PicoTokenizer}.
+ */
+public class PicoTokenizerTest {
+
+    private static final String PROGRAM = "begin declare a,b2,| a:=(b2+10)*-a; end";
+
+    @Test
+    public void testTokens() {
+        List<PicoTokenizer.Token> tokens = tokenize(new PicoTokenizer(PROGRAM));
+        assertEqual(tokens.size(), 19);
+        assertEqual(tokens.get(0).type, PicoTokenizer.Token.Type.BEGIN);
+        assertEqual(tokens.get(4).value, "b2");
+        assertEqual(tokens.get(4).type, PicoTokenizer.Token.Type.IDENTIFIER);
+        assertEqual(tokens.get(12).type, PicoTokenizer.Token.Type.NATNUMBER);
+        assertEqual(tokens.get(18).type, PicoTokenizer.Token.Type.END);
+    }
+
+    @Test
+    public void testStreamingEqualsString() {
+        List<PicoTokenizer.Token> expected = tokenize(new PicoTokenizer(PROGRAM));
+        // A buffer smaller than most tokens forces the window to slide and grow
+        assertEqual(tokenize(new PicoTokenizer(new StringReader(PROGRAM), 1)), expected);
+        assertEqual(tokenize(new PicoTokenizer(new StringReader(PROGRAM), 4)), expected);
+    }
+
+    @Test
+    public void testCursor() {
+        PicoTokenizer tokenizer = new PicoTokenizer(PROGRAM);
+        assertEqual(tokenizer.type(), PicoTokenizer.Token.Type.BEGIN);
+        assertEqual(tokenizer.start(), 0L);
+        assertEqual(tokenizer.end(), 5L);
+
+        for (int i = 0; i < 4; ++i)
+            tokenizer.advance();
+        assertEqual(tokenizer.type(), PicoTokenizer.Token.Type.IDENTIFIER);
+        assertEqual(tokenizer.contentEquals("b2"), true);
+        assertEqual(tokenizer.contentEquals("b"), false);
+        assertEqual(tokenizer.start(), 16L);
+
+        // The token adapter returns the token the cursor rests on
+        assertEqual(tokenizer.peek().value, "b2");
+        assertEqual(tokenizer.next().value, "b2");
+        assertEqual(tokenizer.type(), PicoTokenizer.Token.Type.DECLARATION_END);
+
+        while (tokenizer.advance()) ;
+        assertEqual(tokenizer.type() == null, true);
+    }
+
+    @Test
+    public void testTokenBuffer() {
+        List<PicoTokenizer.Token> expected = tokenize(new PicoTokenizer(PROGRAM));
+        TokenBuffer buffer = TokenBuffer.tokenize(PROGRAM);
+        assertEqual(buffer.size(), expected.size());
+        for (int i = 0; i < buffer.size(); ++i) {
+            assertEqual(buffer.type(i), expected.get(i).type);
+            assertEqual(buffer.value(i), expected.get(i).value);
+        }
+
+        // The same buffer can be recognized repeatedly
+        new PicoRec(buffer).recognize();
+        new PicoRec(buffer).recognize();
+    }
+
+    @Test
+    public void testTokenBufferParallel() throws IOException {
+        // Large enough for 4 chunks of the minimum chunk size (64K characters)
+        StringBuilder input = new StringBuilder();
+        while (input.length() < 4 * 65536 + 1) {
+            for (int i = 1; i <= 4; ++i)
+                input.append(new String(Files.readAllBytes(Paths.get("examples/valid" + i + ".pico")),
+                        StandardCharsets.ISO_8859_1));
+        }
+
+        TokenBuffer expected = TokenBuffer.tokenize(input);
+        TokenBuffer parallel = TokenBuffer.tokenize(input, 4);
+        assertEqual(parallel.size(), expected.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEqual(parallel.type(i), expected.type(i));
+            assertEqual(parallel.start(i), expected.start(i));
+            assertEqual(parallel.length(i), expected.length(i));
+        }
+    }
+
+    private static List<PicoTokenizer.Token> tokenize(PicoTokenizer tokenizer) {
+        List<PicoTokenizer.Token> tokens = new ArrayList<>();
+        try {
+            while (true)
+                tokens.add(tokenizer.next());
+        } catch (PicoTokenizer.NoNextTokenException e) {
+            return tokens;
+        }
+    }
+
+
+    public static void main(String args[]){
+
+        PicoTokenizerTest testInstance = new PicoTokenizerTest();
+        for(Method method : PicoTokenizerTest.class.getMethods()){
+            if(method.getAnnotation(Test.class) != null)
+                try {
+                    try {
+                        method.setAccessible(true);
+                        method.invoke(testInstance);
+                        System.out.println("Test " + method.getName() + " succeeded");
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }catch(Throwable t) {
+                    System.out.println("Test " + method.getName() + " failed (" + t.getMessage() + ")");
+                }
+        }
+    }
+
+
+    @Documented
+    @Inherited
+    @Target({ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    private @interface Test{ }
+
+    private static void assertEqual(Object given, Object expected){
+        if(!given.equals(expected))
+            throw new AssertEqualsException(given, expected);
+    }
+
+
+    private static class AssertEqualsException extends RuntimeException{
+        private AssertEqualsException(Object given, Object expected){
+            super("Expected "+expected+" was given "+given);
+        }
+    }
+
+}
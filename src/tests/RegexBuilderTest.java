@@ -1,7 +1,10 @@
 package tests;
 
 import regex.RegexBuilder;
+import regex.RegexSpec;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.annotation.Documented;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Inherited;
@@ -10,6 +13,12 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Created by Maurice on 28-4-2016.
@@ -24,6 +33,147 @@ public class RegexBuilderTest {
         assertEqual(regexBuilder.toString(),"(\\s|(\\s\\s))");
     }
 
+    @Test
+    public void testUnfold(){
+        RegexBuilder regexBuilder = new RegexBuilder();
+        regexBuilder.add("s","[a-z]");
+        regexBuilder.add("EXP","s+");
+        regexBuilder.add("COMP_EXP","\\sEXP[s]");
+        regexBuilder.add("PROGRAM","COMP_EXP|EXP");
+        // The longest identifier is referenced, and escapes and character classes don't contain references
+        assertEqual(regexBuilder.getUnfoldedExpression("COMP_EXP"),"(\\s(([a-z])+)[s])");
+        assertEqual(regexBuilder.getUnfoldedExpression("PROGRAM"),"((\\s(([a-z])+)[s])|(([a-z])+))");
+
+        regexBuilder.add("s","PROGRAM");
+        try {
+            regexBuilder.toString();
+            fail();
+        } catch (RuntimeException e) {
+            // s refers to PROGRAM, which occurs after it
+        }
+    }
+
+    @Test
+    public void testAutomaton(){
+        RegexBuilder regexBuilder = new RegexBuilder();
+        regexBuilder.add("UnsignedInt","[0]|([1-9][0-9]*)");
+        regexBuilder.add("SignedInt","[\\+\\-]?UnsignedInt");
+        regexBuilder.add("UnsignedReal","UnsignedInt\\.[0-9]+([eE]SignedInt)?");
+        assertEqual(regexBuilder.getAutomaton("UnsignedReal").run("10.5e-3"), true);
+        assertEqual(regexBuilder.getAutomaton("UnsignedReal").run("01.5"), false);
+        assertEqual(regexBuilder.buildAutomaton().run("-3"), true);
+        if(regexBuilder.getAutomaton("Float") != null) fail();
+
+        regexBuilder.add("SignedInt","UnsignedReal");
+        try {
+            regexBuilder.getAutomaton("SignedInt");
+            fail();
+        } catch (RuntimeException e) {
+            // SignedInt refers to UnsignedReal, which occurs after it
+        }
+    }
+
+    @Test
+    public void testAutomatonIdentifiers(){
+        RegexBuilder regexBuilder = new RegexBuilder();
+        regexBuilder.add("LOW-CASE","[a-z]");
+        regexBuilder.add("WORD","LOW-CASE+");
+        regexBuilder.add("A>B","[0-9]");
+        regexBuilder.add("TAG","WORD:A>B");
+        assertEqual(regexBuilder.getUnfoldedExpression("WORD"), "(([a-z])+)");
+        assertEqual(regexBuilder.getAutomaton("WORD").run("ab"), true);
+        assertEqual(regexBuilder.getAutomaton("TAG").run("ab:1"), true);
+        assertEqual(regexBuilder.getAutomaton("TAG").run("ab:"), false);
+        regexBuilder.compileAll();
+        assertEqual(regexBuilder.buildAutomaton().run("x:7"), true);
+    }
+
+    @Test
+    public void testEdit(){
+        RegexBuilder regexBuilder = new RegexBuilder();
+        regexBuilder.add("DIGIT","[0-9]");
+        regexBuilder.add("NAT","DIGIT+");
+        regexBuilder.add("ID","[a-z]+");
+        assertEqual(regexBuilder.getRunAutomaton("NAT").run("12"), true);
+        assertEqual(regexBuilder.getUnfoldedExpression("ID"), "([a-z]+)");
+
+        // Definitions that refer to an edited definition change as well
+        regexBuilder.setRegexForIdentifier("DIGIT", Arrays.asList("[0-1]"));
+        assertEqual(regexBuilder.getRunAutomaton("NAT").run("12"), false);
+        assertEqual(regexBuilder.getUnfoldedExpression("NAT"), "(([0-1])+)");
+
+        // A renamed definition keeps its position, and definitions that referred to it no longer do
+        regexBuilder.updateIdentifier("DIGIT", "BIT");
+        assertEqual(regexBuilder.getUnfoldedExpression("NAT"), "(DIGIT+)");
+        regexBuilder.add("FRACTION","\\.BIT+");
+        assertEqual(regexBuilder.getAutomaton("FRACTION").run(".01"), true);
+    }
+
+    @Test
+    public void testCompileAll(){
+        RegexBuilder parallel = new RegexBuilder(new File("expressions.regex"));
+        RegexBuilder sequential = new RegexBuilder(new File("expressions.regex"));
+        parallel.getAutomaton("SignedInt");
+        parallel.compileAll(new ForkJoinPool(4));
+        for(String identifier : sequential.getIdentifiers())
+            assertEqual(parallel.getAutomaton(identifier), sequential.getAutomaton(identifier));
+    }
+
+    @Test
+    public void testPublish() throws InterruptedException{
+        RegexBuilder regexBuilder = new RegexBuilder();
+        regexBuilder.add("DIGIT","[0-9]");
+        regexBuilder.add("NAT","DIGIT+");
+        regexBuilder.add("ID","[a-z]+");
+        if(regexBuilder.getSpec() != null) fail();
+        RegexSpec first = regexBuilder.publish();
+
+        // Matching threads read the published snapshot while the builder is edited
+        AtomicBoolean matched = new AtomicBoolean(true);
+        Thread[] threads = new Thread[4];
+        for(int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread(() -> {
+                for(int j = 0; j < 1000; ++j)
+                    if(!regexBuilder.getSpec().matches("ID", "abc")) matched.set(false);
+            });
+            threads[i].start();
+        }
+        regexBuilder.setRegexForIdentifier("DIGIT", Arrays.asList("[0-1]"));
+        RegexSpec second = regexBuilder.publish();
+        for(Thread thread : threads)
+            thread.join();
+        assertEqual(matched.get(), true);
+
+        // Edits don't affect earlier snapshots, and the definitions that didn't change are shared
+        assertEqual(first.matches("NAT", "12"), true);
+        assertEqual(second.matches("NAT", "12"), false);
+        if(second.automaton("ID") != first.automaton("ID")) fail();
+        if(regexBuilder.getSpec() != second) fail();
+    }
+
+    @Test
+    public void testLoad() throws IOException{
+        RegexBuilder loaded = RegexBuilder.load(Paths.get("expressions.regex"));
+        RegexBuilder read = new RegexBuilder(new File("expressions.regex"));
+        assertEqual(loaded.getIdentifiers(), read.getIdentifiers());
+        assertEqual(loaded.toString(), read.toString());
+
+        Path spec = Files.createTempFile("spec", ".regex");
+        try {
+            Files.write(spec, Arrays.asList("# comment", "", "A\t::=  a::=b", "A ::= \\s ", "B"));
+            try {
+                RegexBuilder.load(spec);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // Line 5 isn't a definition
+            }
+            Files.write(spec, Arrays.asList("A\t::=  a::=b", "A ::= \\s "));
+            assertEqual(Arrays.asList(RegexBuilder.load(spec).getExpressions("A")), Arrays.asList("a", "\\s "));
+        } finally {
+            Files.delete(spec);
+        }
+    }
+
     // \s -> \\s
     @Test
     public void testRegexBuilderCombine(){
@@ -0,0 +1,162 @@
+package tests;
+
+import regex.Lexer;
+import regex.PicoTokenizer;
+import regex.RegexSpec;
+
+import java.io.IOException;
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Tests for the {@code RegexSpec}.
+ */
+public class RegexSpecTest {
+
+    @Test
+    public void testCache() throws IOException {
+        Path directory = Files.createTempDirectory("spec");
+        Path spec = directory.resolve("pico.tokens");
+        Path cache = RegexSpec.cacheFile(spec);
+        try {
+            Files.copy(Paths.get("examples/pico.tokens"), spec);
+
+            // The first load compiles the spec and writes the cache, the second one reads it
+            RegexSpec compiled = RegexSpec.load(spec);
+            assertEqual(Files.exists(cache), true);
+
+            // The cache is created like any other file, so it is as readable as the spec itself
+            if (Files.getFileStore(cache).supportsFileAttributeView("posix")) {
+                Path reference = Files.write(directory.resolve("reference"), new byte[0]);
+                try {
+                    assertEqual(Files.getPosixFilePermissions(cache), Files.getPosixFilePermissions(reference));
+                } finally {
+                    Files.delete(reference);
+                }
+            }
+            long modified = Files.getLastModifiedTime(cache).toMillis();
+            RegexSpec cached = RegexSpec.load(spec);
+            assertEqual(Files.getLastModifiedTime(cache).toMillis(), modified);
+            assertEqual(cached.identifiers(), compiled.identifiers());
+
+            String program = new String(Files.readAllBytes(Paths.get("examples/valid1.pico")),
+                    StandardCharsets.ISO_8859_1);
+            assertSameTokens(compiled.lexer(), cached.lexer(), program);
+            assertEqual(cached.matches("NATNUMBER", "120"), true);
+            assertEqual(cached.matches("NATNUMBER", "012"), false);
+
+            // A changed spec makes the cache stale
+            Files.write(spec, "HEX ::= 0x[0-9a-f]+\n".getBytes(StandardCharsets.ISO_8859_1),
+                    StandardOpenOption.APPEND);
+            RegexSpec changed = RegexSpec.load(spec);
+            assertEqual(changed.matches("HEX", "0x1f"), true);
+            assertEqual(RegexSpec.load(spec).matches("HEX", "0x1f"), true);
+
+            // A corrupt cache is compiled again
+            Files.write(cache, new byte[]{1, 2, 3});
+            assertEqual(RegexSpec.load(spec).matches("HEX", "0x"), false);
+            if (RegexSpec.load(spec).automaton("OCT") != null) fail();
+        } finally {
+            Files.deleteIfExists(cache);
+            Files.deleteIfExists(spec);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    public void testPicoTokens() throws IOException {
+        // Loaded from a copy, such that the cache file isn't written into the examples
+        Path directory = Files.createTempDirectory("spec");
+        Path copy = directory.resolve("pico.tokens");
+        RegexSpec spec;
+        try {
+            Files.copy(Paths.get("examples/pico.tokens"), copy);
+            spec = RegexSpec.load(copy);
+        } finally {
+            Files.deleteIfExists(RegexSpec.cacheFile(copy));
+            Files.deleteIfExists(copy);
+            Files.deleteIfExists(directory);
+        }
+        String[] names = new String[PicoTokenizer.Token.Type.values().length];
+        for (PicoTokenizer.Token.Type type : PicoTokenizer.Token.Type.values())
+            names[type.ordinal()] = type.name();
+        Lexer lexer = spec.lexer(names);
+
+        String program = new String(Files.readAllBytes(Paths.get("examples/valid2.pico")),
+                StandardCharsets.ISO_8859_1);
+        PicoTokenizer tokenizer = new PicoTokenizer(program);
+        Lexer.Cursor cursor = lexer.tokenize(program);
+        do {
+            assertEqual(String.valueOf(cursor.name()), String.valueOf(tokenizer.type()));
+            assertEqual(cursor.end(), tokenizer.end());
+            tokenizer.advance();
+        } while (cursor.advance());
+        assertEqual(tokenizer.type() == null, true);
+    }
+
+    private static void assertSameTokens(Lexer expected, Lexer given, String input) {
+        Lexer.Cursor expectedCursor = expected.tokenize(input);
+        Lexer.Cursor givenCursor = given.tokenize(input);
+        do {
+            assertEqual(String.valueOf(givenCursor.name()), String.valueOf(expectedCursor.name()));
+            assertEqual(givenCursor.end(), expectedCursor.end());
+            givenCursor.advance();
+        } while (expectedCursor.advance());
+        assertEqual(givenCursor.advance(), false);
+    }
+
+
+    public static void main(String args[]){
+
+        RegexSpecTest testInstance = new RegexSpecTest();
+        for(Method method : RegexSpecTest.class.getMethods()){
+            if(method.getAnnotation(Test.class) != null)
+                try {
+                    try {
+                        method.setAccessible(true);
+                        method.invoke(testInstance);
+                        System.out.println("Test " + method.getName() + " succeeded");
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }catch(Throwable t) {
+                    System.out.println("Test " + method.getName() + " failed (" + t.getMessage() + ")");
+                }
+        }
+    }
+
+
+    @Documented
+    @Inherited
+    @Target({ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    private @interface Test{ }
+
+    private static void fail(){
+        throw new AssertionError();
+    }
+
+    private static void assertEqual(Object given, Object expected){
+        if(!given.equals(expected))
+            throw new AssertEqualsException(given, expected);
+    }
+
+
+    private static class AssertEqualsException extends RuntimeException{
+        private AssertEqualsException(Object given, Object expected){
+            super("Expected "+expected+" was given "+given);
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+package tests;
+
+import regex.Lexer;
+import regex.RegexSpec;
+import regex.ReloadingLexer;
+
+import java.io.IOException;
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the {@code ReloadingLexer}.
+ */
+public class ReloadingLexerTest {
+
+    @Test
+    public void testReload() throws IOException {
+        Path directory = Files.createTempDirectory("spec");
+        Path spec = directory.resolve("numbers.regex");
+        try {
+            Files.write(spec, Arrays.asList("DIGIT ::= [0-9]", "NUMBER ::= DIGIT+", "WORD ::= [a-z]+"));
+            // Without a watcher, such that only the explicit reloads below reload the spec
+            ReloadingLexer reloading = new ReloadingLexer(spec, false, "NUMBER", "WORD");
+            try {
+                Lexer lexer = reloading.lexer();
+                RegexSpec first = reloading.spec();
+                Lexer.Cursor cursor = lexer.tokenize("12 ab");
+                assertEqual(reloading.reload(), false);
+
+                // Only the changed definition is compiled again, the others are taken over
+                Files.write(spec, Arrays.asList("DIGIT ::= [0-9]", "NUMBER ::= DIGIT+", "WORD ::= [a-z]+[0-9]*"));
+                assertEqual(reloading.reload(), true);
+                if (reloading.spec().automaton("NUMBER") != first.automaton("NUMBER")) fail();
+                if (reloading.spec().automaton("WORD") == first.automaton("WORD")) fail();
+                assertEqual(reloading.lexer().tokenize("ab12").value(), "ab12");
+
+                // A cursor keeps using the lexer it was created by
+                assertEqual(cursor.value(), "12");
+                cursor.advance();
+                assertEqual(cursor.value(), "ab");
+
+                // A definition that refers to a changed definition changes as well
+                Files.write(spec, Arrays.asList("DIGIT ::= [0-1]", "NUMBER ::= DIGIT+", "WORD ::= [a-z]+[0-9]*"));
+                reloading.reload();
+                assertEqual(reloading.spec().matches("NUMBER", "12"), false);
+
+                // A version that can't be compiled keeps the current lexer
+                lexer = reloading.lexer();
+                Files.write(spec, Arrays.asList("DIGIT ::= [0-1]", "NUMBER ::= DIGIT+"));
+                try {
+                    reloading.reload();
+                    fail();
+                } catch (IllegalArgumentException e) {
+                    // WORD is not defined
+                }
+                if (reloading.lexer() != lexer) fail();
+
+                // A closed reloader doesn't reload anymore
+                reloading.close();
+                try {
+                    reloading.reload();
+                    fail();
+                } catch (IllegalStateException e) {
+                    // The reloader is closed
+                }
+                if (reloading.lexer() != lexer) fail();
+            } finally {
+                reloading.close();
+            }
+        } finally {
+            Files.deleteIfExists(RegexSpec.cacheFile(spec));
+            Files.deleteIfExists(spec);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    public void testWatch() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("spec");
+        Path spec = directory.resolve("words.regex");
+        try {
+            Files.write(spec, Arrays.asList("WORD ::= [a-z]+"));
+            ReloadingLexer reloading = new ReloadingLexer(spec);
+            try {
+                Lexer lexer = reloading.lexer();
+                Files.write(spec, Arrays.asList("WORD ::= [a-z]+", "NUMBER ::= [0-9]+"));
+
+                // The watcher publishes the new lexer in the background, possibly after that of a partial write
+                List<String> names = Arrays.asList("WORD", "NUMBER");
+                long deadline = System.currentTimeMillis() + 30000;
+                while (!reloading.lexer().names().equals(names) && System.currentTimeMillis() < deadline)
+                    Thread.sleep(10);
+                if (reloading.lexer() == lexer) fail();
+                ReloadingLexer.Version version = reloading.current();
+                assertEqual(version.lexer().names(), Arrays.asList("WORD", "NUMBER"));
+                if (version.spec().automaton("NUMBER") == null) fail();
+                if (reloading.failure() != null) fail();
+
+                // Once closed, the watcher neither reloads nor writes the cache file
+                reloading.close();
+                Files.deleteIfExists(RegexSpec.cacheFile(spec));
+                Files.write(spec, Arrays.asList("WORD ::= [a-z]+"));
+                Thread.sleep(200);
+                if (reloading.current() != version) fail();
+                assertEqual(Files.exists(RegexSpec.cacheFile(spec)), false);
+            } finally {
+                reloading.close();
+            }
+        } finally {
+            Files.deleteIfExists(RegexSpec.cacheFile(spec));
+            Files.deleteIfExists(spec);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+
+    public static void main(String args[]){
+
+        ReloadingLexerTest testInstance = new ReloadingLexerTest();
+        for(Method method : ReloadingLexerTest.class.getMethods()){
+            if(method.getAnnotation(Test.class) != null)
+                try {
+                    try {
+                        method.setAccessible(true);
+                        method.invoke(testInstance);
+                        System.out.println("Test " + method.getName() + " succeeded");
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }catch(Throwable t) {
+                    System.out.println("Test " + method.getName() + " failed (" + t.getMessage() + ")");
+                }
+        }
+    }
+
+
+    @Documented
+    @Inherited
+    @Target({ElementType.METHOD})
+    @Retention(RetentionPolicy.RUNTIME)
+    private @interface Test{ }
+
+    private static void fail(){
+        throw new AssertionError();
+    }
+
+    private static void assertEqual(Object given, Object expected){
+        if(!given.equals(expected))
+            throw new AssertEqualsException(given, expected);
+    }
+
+
+    private static class AssertEqualsException extends RuntimeException{
+        private AssertEqualsException(Object given, Object expected){
+            super("Expected "+expected+" was given "+given);
+        }
+    }
+
+}